@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Builds the repository the benchmarks run against with the {@link Generator}, from a
+ * fixed seed so every run measures the same history, and then adds TOPIC:
+ *
+ * master : the generated history, then BRANCH_COMMITS commits changing its first files.
+ * TOPIC  : forked from the generated history, BRANCH_COMMITS commits changing its last
+ *          files, so merging it into master is a real merge that doesn't conflict.
+ *
+ * Each repository is in a temporary directory of its own, so the JVM's working
+ * directory is never touched.
+ *
+ *  @author AGX
+ */
+final class BenchRepo {
+
+    /** The seed of every repository, so runs are comparable. */
+    static final long SEED = 61;
+
+    /** The branch checked out and merged by the benchmarks. */
+    static final String TOPIC = "topic";
+
+    private static final int BRANCH_COMMITS = 3;
+
+    private BenchRepo() {
+    }
+
+    /**
+     * Creates the repository in a new temporary directory: FILES files of about
+     * FILESIZE bytes to start with, COMMITS generated commits and BRANCHES branches,
+     * master included.
+     */
+    static Repository create(int files, int commits, int branches, int fileSize) throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-bench");
+        Generator generator = new Generator();
+        generator.seed = SEED;
+        generator.files = files;
+        generator.commits = commits;
+        generator.branches = branches;
+        generator.size = fileSize;
+        Repository repo = generator.run(dir.toFile());
+        if (!repo.currentBranch.equals("master")) {
+            repo.checkout("master", false);
+        }
+        repo.branch(TOPIC);
+
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<String> tracked = files(repo);
+        int n = Math.min(BRANCH_COMMITS, tracked.size());
+        for (int c = 0; c < n; c += 1) {
+            change(repo, tracked.get(c), random, fileSize, "master " + c);
+        }
+        repo.checkout(TOPIC, false);
+        for (int c = 0; c < n; c += 1) {
+            change(repo, tracked.get(tracked.size() - 1 - c), random, fileSize, TOPIC + " " + c);
+        }
+        repo.checkout("master", false);
+        repo.save();
+        return Repository.fromFile(repo.store);
+    }
+
+    /** Returns the files of HEAD, sorted. */
+    static List<String> files(Repository repo) {
+        return new ArrayList<>(Commit.fromFile(repo.store, repo.HEADHash).files().keySet());
+    }
+
+    /** Writes new contents to FILE and commits them with MESSAGE. */
+    static void change(Repository repo, String file, SplittableRandom random, int size, String message) {
+        write(repo, file, random, size);
+        repo.add(file);
+        repo.commit(message);
+    }
+
+    /** Fills the working file FILE of REPO with SIZE bytes of lines of random lowercase words. */
+    static void write(Repository repo, String file, SplittableRandom random, int size) {
+        byte[] contents = new byte[size];
+        for (int i = 0; i < size; i += 1) {
+            int r = random.nextInt(32);
+            contents[i] = (byte) (r < 26 ? 'a' + r : r < 31 ? ' ' : '\n');
+        }
+        try {
+            Files.write(Utils.join(repo.store.root, file).toPath(), contents);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Deletes the working directory of REPO, made by create, with the repository. */
+    static void delete(Repository repo) throws IOException {
+        File dir = repo.store.root;
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
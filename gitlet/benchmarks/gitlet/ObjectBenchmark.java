@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The building blocks under the commands: hashing, encoding and decoding commits,
+ * reading trees and blobs, on a small generated repository (see {@link BenchRepo}).
+ *
+ *  @author AGX
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+@State(Scope.Benchmark)
+public class ObjectBenchmark {
+
+    /** Size of the file that is hashed and of the blobs that are read, in bytes. */
+    @Param({"4096", "1048576"})
+    public int fileSize;
+
+    /** Number of files in the commit whose tree is read. */
+    @Param("1000")
+    public int files;
+
+    private Repository repo;
+    private Path file;
+    private String blob;
+    private Commit commit;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        repo = BenchRepo.create(files, 1, 2, 64);
+        BenchRepo.write(repo, "hashed", new SplittableRandom(BenchRepo.SEED), fileSize);
+        file = Utils.join(repo.store.root, "hashed").toPath();
+        blob = new Blob(repo.store, file.toFile()).getHash();
+        commit = Commit.fromFile(repo.store, repo.HEADHash);
+        encoded = commit.encode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchRepo.delete(repo);
+    }
+
+    @Benchmark
+    public String sha1File() {
+        return Utils.sha1(file);
+    }
+
+    @Benchmark
+    public byte[] encodeCommit() {
+        return commit.encode();
+    }
+
+    @Benchmark
+    public Commit decodeCommit() {
+        return Commit.decode(encoded);
+    }
+
+    /** Reads the trees of the commit and lists all of its files. */
+    @Benchmark
+    public Map<String, String> readTrees() {
+        return Tree.files(repo.store, commit.treeHash());
+    }
+
+    @Benchmark
+    public byte[] readBlob() {
+        return Blob.fromFile(repo.store, blob).getContent();
+    }
+}
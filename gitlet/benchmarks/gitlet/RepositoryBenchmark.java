@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The commands, run through Repository against a generated repository (see
+ * {@link BenchRepo} and {@link Generator}) whose size is set with the parameters, e.g.
+ *   java -jar target/benchmarks.jar RepositoryBenchmark -p files=5000 -p depth=1000
+ * Each benchmark gets its own JVM and repository. Commands that change the repository
+ * (add, commit, checkout, merge) keep changing the same one from one call to the next,
+ * and their caches stay warm, as in a long-running process. What the commands print
+ * goes nowhere.
+ *
+ *  @author AGX
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    /** Number of files the generated history starts with. */
+    @Param("200")
+    public int files;
+
+    /** Number of generated commits, merges included. */
+    @Param("100")
+    public int depth;
+
+    /** Number of generated branches, master included. */
+    @Param("4")
+    public int branches;
+
+    /** Size of each file in bytes, about. */
+    @Param("4096")
+    public int fileSize;
+
+    Repository repo;
+    private PrintStream stdout;
+    private SplittableRandom random;
+    private List<String> tracked;
+    private int version;
+    private Commit head;
+    private Commit other;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        repo = BenchRepo.create(files, depth, branches, fileSize);
+        random = new SplittableRandom(BenchRepo.SEED + 1);
+        tracked = BenchRepo.files(repo);
+        head = Commit.fromFile(repo.store, repo.HEADHash);
+        other = Commit.fromFile(repo.store, repo.store.refs.get(BenchRepo.TOPIC));
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        BenchRepo.delete(repo);
+    }
+
+    /** Writes a new version of a file and stages it: hashing it and storing its blob. */
+    @Benchmark
+    public void add() {
+        String file = tracked.get(version++ % tracked.size());
+        BenchRepo.write(repo, file, random, fileSize);
+        repo.add(file);
+        repo.save();
+    }
+
+    /** Writes a new version of a file, stages it and commits it. */
+    @Benchmark
+    public void commit() {
+        String file = tracked.get(version % tracked.size());
+        BenchRepo.write(repo, file, random, fileSize);
+        repo.add(file);
+        repo.commit("benchmark " + version++);
+        repo.save();
+    }
+
+    @Benchmark
+    public void status() {
+        repo.status();
+    }
+
+    /** Walks the whole history of master. */
+    @Benchmark
+    public void log() {
+        repo.log();
+    }
+
+    @Benchmark
+    public void globalLog() {
+        repo.global_log(false);
+    }
+
+    /** Switches between master and the topic branch, which differ in a few files. */
+    @Benchmark
+    public void checkout() {
+        repo.checkout(version++ % 2 == 0 ? BenchRepo.TOPIC : "master", false);
+        repo.save();
+    }
+
+    @Benchmark
+    public String findSplitPoint() {
+        return repo.findSplitPoint(head, other);
+    }
+
+    /** Puts master back where it was before each merge, outside of the measurement. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        private String master;
+
+        @Setup(Level.Invocation)
+        public void reset(RepositoryBenchmark bench) {
+            if (master == null) {
+                master = bench.repo.HEADHash;
+            } else {
+                bench.repo.reset(master);
+                bench.repo.save();
+            }
+        }
+    }
+
+    /** Merges the topic branch into master. */
+    @Benchmark
+    public void merge(Unmerged unmerged) {
+        repo.merge(BenchRepo.TOPIC);
+        repo.save();
+    }
+}
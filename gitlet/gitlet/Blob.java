@@ -1,54 +1,249 @@
 package gitlet;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
 import static gitlet.Utils.*;
 
-public class Blob implements Serializable {
-    private String content;
+/**
+ * A snapshot of a file's contents.
+ * The blob object is the raw bytes of the file, stored in the objects directory with its
+ * SHA-1 as the name (or deflated in the pack), so binary files round-trip exactly.
+ * A new version of a tracked file may instead be stored as a {@link Delta} against
+ * the previous one, which is rebuilt in memory when it is read, and a large file may
+ * be stored as {@link Chunked} chunks shared with other versions. Other contents are
+ * only ever streamed, never held on the heap as a whole.
+ */
+public class Blob {
+    /** Size of the buffer used when streaming contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The repository the blob is stored in. */
+    private final Store store;
+
     private String hash;
 
-    public Blob(File file) {
-        // read file content and store it in content instance variable
-        content = readContentsAsString(file);
-        // compute hash based on the content
-        hash = sha1(content);
+    public Blob(Store store, File file) {
+        this(store, file, null);
+    }
 
-        File blobFile = join(Repository.BLOB_DIR, hash);
+    /**
+     * Stores the contents of FILE in STORE, as a delta against the blob BASE if BASE isn't null
+     * and that saves enough space, see {@link Delta#store}.
+     */
+    public Blob(Store store, File file, String base) {
+        this.store = store;
+        if (Chunked.ENABLED && file.length() >= Chunked.MIN_FILE) {
+            hash = Chunked.store(store, file);
+            return;
+        }
+        // copy the file into a temporary object while computing its hash
+        MessageDigest md = sha1Digest();
+        File tmp;
         try {
-            if (!blobFile.exists()) {
-                blobFile.createNewFile();
+            tmp = File.createTempFile("blob", ".tmp", store.blobDir);
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
             }
-            writeObject(blobFile, this);
         } catch (IOException e) {
-            System.out.println("couldn't create blob file");
-            System.exit(0);
+            throw error("couldn't create blob file");
         }
+        hash = toHex(md.digest());
 
+        File blobFile = join(store.blobDir, hash);
+        Pack pack = Pack.open(store);
+        if (blobFile.exists() || Delta.exists(store, hash) || Chunked.exists(store, hash)
+                || (pack != null && pack.contains(hash))) {
+            // same content is already stored
+            tmp.delete();
+            return;
+        }
+        try {
+            if (base != null && tmp.length() >= Delta.MIN_SIZE && tmp.length() <= Delta.MAX_SIZE
+                    && Delta.store(store, hash, Files.readAllBytes(tmp.toPath()), base)) {
+                tmp.delete();
+                return;
+            }
+            Files.move(tmp.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("couldn't create blob file");
+        }
     }
 
+    private Blob(Store store, String hash) {
+        this.store = store;
+        this.hash = hash;
+    }
 
-
-    public static Blob fromFile(String hash) {
+    /** Returns the blob HASH of STORE, or null if there is no such blob. */
+    public static Blob fromFile(Store store, String hash) {
         if (hash == null || hash.isEmpty()) {
             return null;
         }
-        File blobFile = join(Repository.BLOB_DIR, hash);
-        if (!blobFile.exists()) {
+        long start = Trace.start();
+        Blob blob = lookup(store, hash);
+        Trace.BLOB_LOOKUP.record(start, 0);
+        return blob;
+    }
+
+    private static Blob lookup(Store store, String hash) {
+        File blobFile = join(store.blobDir, hash);
+        if (blobFile.exists() || Delta.exists(store, hash) || Chunked.exists(store, hash)) {
+            return new Blob(store, hash);
+        }
+        Pack pack = Pack.open(store);
+        if (pack == null || !pack.contains(hash)) {
             return null;
         }
-        return readObject(blobFile, Blob.class);
+        return new Blob(store, hash);
+    }
+
+    /**
+     * Returns the SHA-1 of the contents of FILE, which is the hash the blob of FILE would get.
+     * The file is streamed through the digest, so memory use doesn't depend on its size.
+     */
+    public static String hashOf(File file) {
+        return sha1(file.toPath());
     }
 
     public String getHash() {
         return hash;
     }
 
-    public String getContent() {
-        return content;
+    /**
+     * Opens a stream over the contents of this blob, rebuilding them first if it is a delta,
+     * or going through its chunks in order if it is chunked. A blob that is stored in none
+     * of these ways, deleted since it was looked up, is a GitletException.
+     */
+    public InputStream open() throws IOException {
+        File blobFile = join(store.blobDir, hash);
+        if (blobFile.exists()) {
+            return new FileInputStream(blobFile);
+        }
+        Pack pack = Pack.open(store);
+        InputStream packed = pack == null ? null : pack.open(hash, Pack.BLOB);
+        if (packed != null) {
+            return packed;
+        }
+        if (Chunked.exists(store, hash)) {
+            return Chunked.open(store, hash);
+        }
+        if (!Delta.exists(store, hash)) {
+            throw missing();
+        }
+        return new ByteArrayInputStream(Delta.apply(store, hash));
+    }
+
+    /**
+     * Returns the length of the contents of this blob. Only the headers of a delta or a
+     * chunk list are read, never the contents.
+     */
+    public long size() {
+        File blobFile = join(store.blobDir, hash);
+        if (blobFile.exists()) {
+            return blobFile.length();
+        }
+        Pack pack = Pack.open(store);
+        long packed = pack == null ? -1 : pack.length(hash, Pack.BLOB);
+        if (packed >= 0) {
+            return packed;
+        }
+        if (Chunked.exists(store, hash)) {
+            return Chunked.length(store, hash);
+        }
+        if (!Delta.exists(store, hash)) {
+            throw missing();
+        }
+        return Delta.length(store, hash);
+    }
+
+    private GitletException missing() {
+        return error("Blob %s is missing from the repository.", hash);
+    }
+
+    /**
+     * Returns true if the contents of this blob are stored as they are, loose or in the
+     * pack, so writeTo can copy them without inflating them.
+     */
+    public boolean isStored() {
+        if (join(store.blobDir, hash).exists()) {
+            return true;
+        }
+        Pack pack = Pack.open(store);
+        return pack != null && pack.isStored(hash, Pack.BLOB);
+    }
+
+    /**
+     * Writes the contents of this blob to FILE, creating or overwriting it.
+     * Stored contents are copied file to file with FileChannel.transferTo, so they
+     * never go through the heap, deflated ones are inflated through a stream.
+     */
+    public void writeTo(File file) {
+        long start = Trace.start();
+        try {
+            copyTo(file);
+        } finally {
+            Trace.WORKTREE_WRITE.record(start, file.length());
+        }
+    }
+
+    private void copyTo(File file) {
+        File blobFile = join(store.blobDir, hash);
+        try {
+            if (blobFile.exists()) {
+                try (FileChannel in = FileChannel.open(blobFile.toPath());
+                     FileChannel out = openForWriting(file)) {
+                    long size = in.size();
+                    for (long done = 0; done < size; ) {
+                        done += in.transferTo(done, size - done, out);
+                    }
+                }
+                return;
+            }
+            Pack pack = Pack.open(store);
+            if (pack != null && pack.isStored(hash, Pack.BLOB)) {
+                try (FileChannel out = openForWriting(file)) {
+                    pack.transferTo(hash, out);
+                }
+                return;
+            }
+            try (InputStream in = open()) {
+                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static FileChannel openForWriting(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Returns the whole contents of this blob. Only meant for small files such as merge conflicts. */
+    public byte[] getContent() {
+        try (InputStream in = open()) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
 
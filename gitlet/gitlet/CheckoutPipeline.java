@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static gitlet.Utils.*;
+
+/**
+ * Writes a set of blobs to the working directory with two stages of threads.
+ * Readers open and inflate the blobs and hand them to writers through a bounded
+ * queue, so reading the object store and writing the working tree overlap and
+ * use several cores.
+ * Blobs stored as they are (see {@link Blob#isStored}) aren't read at all, their
+ * writer copies them straight from the object file with FileChannel.transferTo.
+ * Of the others, a file of at most INLINE_LIMIT bytes is read whole by its reader. Only the first
+ * INLINE_LIMIT bytes of a larger file are, and its writer streams the rest, so the
+ * memory in flight is at most about QUEUE_SIZE * INLINE_LIMIT.
+ * The number of threads in each stage is set with -Dgitlet.checkoutWorkers (one per
+ * processor by default) and the queue length with -Dgitlet.checkoutQueue.
+ *
+ *  @author AGX
+ */
+class CheckoutPipeline {
+
+    /** Number of reader threads, and of writer threads. */
+    static final int WORKERS = Math.max(1, Integer.getInteger("gitlet.checkoutWorkers", Workers.THREADS));
+
+    /** Number of files that can wait between the two stages. */
+    static final int QUEUE_SIZE = Math.max(1, Integer.getInteger("gitlet.checkoutQueue", 64));
+
+    /** Largest file read whole by a reader. */
+    static final int INLINE_LIMIT = 1 << 20;
+
+    /** Tells a writer there is nothing more to write. */
+    private static final Job DONE = new Job(null, null, null, null);
+
+    private CheckoutPipeline() {
+    }
+
+    /** A file on its way to the working directory. */
+    private static class Job {
+        final File file;
+        /** The contents, or their first INLINE_LIMIT bytes if REST isn't null. */
+        final byte[] head;
+        /** The remaining contents, still to be streamed, or null. */
+        final InputStream rest;
+        /** A stored blob to copy without reading it, instead of HEAD and REST, or null. */
+        final Blob stored;
+
+        Job(File file, byte[] head, InputStream rest, Blob stored) {
+            this.file = file;
+            this.head = head;
+            this.rest = rest;
+            this.stored = stored;
+        }
+
+        void write() throws IOException {
+            if (stored != null) {
+                stored.writeTo(file);
+                return;
+            }
+            long start = Trace.start();
+            long length = head.length;
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                out.write(head);
+                if (rest != null) {
+                    length += rest.transferTo(out);
+                }
+            } finally {
+                if (rest != null) {
+                    rest.close();
+                }
+            }
+            Trace.WORKTREE_WRITE.record(start, length);
+        }
+    }
+
+    /**
+     * Writes the blob of every entry of FILES (name of the file, hash of its blob) to
+     * the working directory of STORE.
+     */
+    static void materialize(Store store, Map<String, String> files) {
+        if (files.size() <= 1 || WORKERS == 1) {
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                Blob.fromFile(store, entry.getValue()).writeTo(join(store.root, entry.getKey()));
+            }
+            return;
+        }
+        ConcurrentLinkedQueue<Map.Entry<String, String>> pending = new ConcurrentLinkedQueue<>(files.entrySet());
+        BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        int workers = Math.min(WORKERS, files.size());
+
+        ExecutorService readers = Executors.newFixedThreadPool(workers);
+        ExecutorService writers = Executors.newFixedThreadPool(workers);
+        List<Runnable> readTasks = new ArrayList<>();
+        for (int i = 0; i < workers; i += 1) {
+            writers.execute(() -> write(queue, failure));
+            readTasks.add(() -> read(store, pending, queue, failure));
+        }
+        readTasks.forEach(readers::execute);
+        try {
+            readers.shutdown();
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < workers; i += 1) {
+                queue.put(DONE);
+            }
+            writers.shutdown();
+            writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException excp) {
+            readers.shutdownNow();
+            writers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("checkout interrupted");
+        }
+        if (failure.get() != null) {
+            throw new IllegalArgumentException(failure.get().getMessage());
+        }
+    }
+
+    /** The reader stage: takes files from PENDING until there are none left, or something failed. */
+    private static void read(Store store, ConcurrentLinkedQueue<Map.Entry<String, String>> pending,
+                             BlockingQueue<Job> queue, AtomicReference<Exception> failure) {
+        Map.Entry<String, String> entry;
+        while (failure.get() == null && (entry = pending.poll()) != null) {
+            try {
+                Blob blob = Blob.fromFile(store, entry.getValue());
+                File file = join(store.root, entry.getKey());
+                if (blob.isStored()) {
+                    queue.put(new Job(file, null, null, blob));
+                    continue;
+                }
+                InputStream in = blob.open();
+                byte[] head = in.readNBytes(INLINE_LIMIT);
+                if (head.length < INLINE_LIMIT) {
+                    in.close();
+                    in = null;
+                }
+                queue.put(new Job(file, head, in, null));
+            } catch (IOException | RuntimeException | InterruptedException excp) {
+                failure.compareAndSet(null, excp);
+            }
+        }
+    }
+
+    /** The writer stage: writes files until told it is DONE. After a failure it only drains the queue. */
+    private static void write(BlockingQueue<Job> queue, AtomicReference<Exception> failure) {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException excp) {
+                failure.compareAndSet(null, excp);
+                return;
+            }
+            if (job == DONE) {
+                return;
+            }
+            try {
+                if (failure.get() == null) {
+                    job.write();
+                } else if (job.rest != null) {
+                    job.rest.close();
+                }
+            } catch (IOException | RuntimeException excp) {
+                failure.compareAndSet(null, excp);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static gitlet.Utils.*;
+
+/**
+ * A large blob stored as the list of its chunks, which are plain blobs of their own in
+ * the objects directory. Chunks end where a rolling hash of the last bytes read says so (FastCDC with
+ * a Gear hash), not at fixed offsets, so inserting or removing bytes in a file only
+ * changes the chunks around the edit and every other chunk is shared with the previous
+ * version, or with any other file holding the same bytes.
+ * The blob keeps the SHA-1 of its whole contents as its hash, so only the way it is
+ * stored changes. Reading it streams the chunks one after the other, see {@link Blob#open}.
+ *
+ * Chunking is off by default, -Dgitlet.chunking=true turns it on for files of at least
+ * MIN_FILE bytes. Chunks are between MIN_CHUNK and MAX_CHUNK bytes, AVG_CHUNK on average.
+ *
+ * chunk list : MAGIC, VERSION, length of the contents (long), count (int),
+ *              then count entries of [chunk hash (20 bytes), length (int)], in order.
+ *
+ * Chunk lists live in CHUNKED_DIR, named by the hash of the whole contents, until
+ * `repack` moves them into the pack.
+ *
+ *  @author AGX
+ */
+class Chunked {
+
+    /** The directory of loose chunk lists, in the .gitlet directory. */
+    static final String CHUNKED_DIR = "chunked";
+
+    /** Whether new blobs of at least MIN_FILE bytes are chunked. */
+    static final boolean ENABLED = Boolean.getBoolean("gitlet.chunking");
+
+    /** Smallest file that is chunked. */
+    static final int MIN_FILE = 1 << 18;
+
+    static final int MIN_CHUNK = 1 << 11;
+    static final int AVG_CHUNK = 1 << 13;
+    static final int MAX_CHUNK = 1 << 16;
+
+    private static final int MAGIC = 0x474c434b; // "GLCK"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+
+    /**
+     * The cut masks of normalized chunking: more bits to match before AVG_CHUNK, so
+     * chunks shorter than that are rarer, fewer bits after it. The Gear hash shifts
+     * left, so its top bits depend on the most bytes.
+     */
+    private static final long MASK_SMALL = -1L << (64 - 15);
+    private static final long MASK_LARGE = -1L << (64 - 11);
+
+    /** A random value for each byte, fixed by the seed so chunks are the same everywhere. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x676561722d636463L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private Chunked() {
+    }
+
+    /**
+     * Stores FILE in STORE as chunks, writing only the chunks that aren't stored yet, and then
+     * its chunk list. Returns the hash of the blob.
+     * The whole file is hashed first, and if the blob is already stored, loose, as a
+     * delta, chunked or packed, nothing is written at all.
+     */
+    static String store(Store store, File file) {
+        String stored = sha1(file.toPath());
+        if (Blob.fromFile(store, stored) != null) {
+            return stored;
+        }
+        // hashed again as it is chunked, in case FILE changed since;
+        // the chunks are hashed on the digest of this thread in between
+        MessageDigest whole = newSha1Digest();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(list);
+        long length = 0;
+        int count = 0;
+        byte[] buffer = new byte[2 * MAX_CHUNK];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                if (end - start < MAX_CHUNK && !eof) {
+                    // always look at MAX_CHUNK bytes when there are that many, so the
+                    // cuts don't depend on how the reads happen to split the file
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    while (end < buffer.length && !eof) {
+                        int n = in.read(buffer, end, buffer.length - end);
+                        if (n < 0) {
+                            eof = true;
+                        } else {
+                            end += n;
+                        }
+                    }
+                }
+                if (start == end) {
+                    break;
+                }
+                int n = cut(buffer, start, end - start);
+                whole.update(buffer, start, n);
+                MessageDigest part = sha1Digest();
+                part.update(buffer, start, n);
+                String chunk = toHex(part.digest());
+                writeChunk(store, chunk, buffer, start, n);
+                entries.write(toBytes(chunk));
+                entries.writeInt(n);
+                length += n;
+                count += 1;
+                start += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String hash = toHex(whole.digest());
+        if (Blob.fromFile(store, hash) != null) {
+            return hash;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + list.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeInt(count);
+            list.writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        store.file(CHUNKED_DIR).mkdir();
+        File tmp = store.file(CHUNKED_DIR, hash + ".tmp");
+        writeContents(tmp, bytes.toByteArray());
+        move(tmp, store.file(CHUNKED_DIR, hash));
+        return hash;
+    }
+
+    /**
+     * Returns the length of the chunk starting at OFFSET in BUFFER, where LENGTH bytes
+     * are available: the first position after MIN_CHUNK where the Gear hash of the
+     * last bytes matches the mask, or MAX_CHUNK.
+     */
+    static int cut(byte[] buffer, int offset, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int normal = Math.min(length, AVG_CHUNK);
+        int limit = Math.min(length, MAX_CHUNK);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Returns true if the blob HASH is stored in STORE as chunks, loose or packed. */
+    static boolean exists(Store store, String hash) {
+        if (store.file(CHUNKED_DIR, hash).isFile()) {
+            return true;
+        }
+        Pack pack = Pack.open(store);
+        return pack != null && pack.contains(hash, Pack.CHUNKED);
+    }
+
+    /** Opens a stream over the contents of the chunked blob HASH of STORE, which opens each chunk in turn. */
+    static InputStream open(Store store, String hash) {
+        List<String> chunks = chunks(store, hash);
+        Iterator<String> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunk = next.next();
+                Blob blob = Blob.fromFile(store, chunk);
+                if (blob == null) {
+                    throw new IllegalArgumentException("missing chunk " + chunk + " of " + hash);
+                }
+                try {
+                    return blob.open();
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Returns the length of the contents of the chunked blob HASH of STORE, from its chunk list alone. */
+    static long length(Store store, String hash) {
+        try (DataInputStream in = readList(store, hash)) {
+            return in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt chunk list " + hash);
+        }
+    }
+
+    /** Returns the hashes of the chunks of the blob HASH of STORE, in order. */
+    static List<String> chunks(Store store, String hash) {
+        List<String> result = new ArrayList<>();
+        try (DataInputStream in = readList(store, hash)) {
+            in.readLong();
+            byte[] chunk = new byte[HASH_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                in.readFully(chunk);
+                in.readInt();
+                result.add(toHex(chunk));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt chunk list " + hash);
+        }
+        return result;
+    }
+
+    /** Reads the chunk list of the blob HASH of STORE, loose or packed, and returns a stream positioned after its header. */
+    private static DataInputStream readList(Store store, String hash) throws IOException {
+        File file = store.file(CHUNKED_DIR, hash);
+        byte[] contents;
+        if (file.isFile()) {
+            contents = readContents(file);
+        } else {
+            Pack pack = Pack.open(store);
+            contents = pack == null ? null : pack.read(hash, Pack.CHUNKED);
+            if (contents == null) {
+                throw new IllegalArgumentException("missing chunk list " + hash);
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IllegalArgumentException("corrupt chunk list " + hash);
+        }
+        return in;
+    }
+
+    /** Stores the LENGTH bytes of BUFFER at OFFSET as the blob HASH of STORE, unless it is already stored. */
+    private static void writeChunk(Store store, String hash, byte[] buffer, int offset, int length) {
+        if (Blob.fromFile(store, hash) != null) {
+            return;
+        }
+        File tmp = join(store.blobDir, hash + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer, offset, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        move(tmp, join(store.blobDir, hash));
+    }
+
+    private static void move(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/** The command-line client of the {@link Daemon}.
+ *  Its main program may be invoked as follows:
+ *      java gitlet.Client ARGS
+ *  which runs the command ARGS as java gitlet.Main ARGS would, on the daemon
+ *  serving the current directory, printing what it prints as it comes, on
+ *  stdout or stderr as the command did. When no daemon is running, the client
+ *  runs the command itself.
+ *
+ *  @author AGX
+ */
+public class Client {
+
+    public static void main(String... args) {
+        if (!send(args)) {
+            Main.main(args);
+        }
+    }
+
+    /**
+     * Has the daemon run ARGS and prints its output. Returns false if no daemon is
+     * listening, in which case the command was not run.
+     */
+    static boolean send(String... args) {
+        File daemonFile = new Store(new File(System.getProperty("user.dir"))).file(Daemon.DAEMON_FILE);
+        if (!daemonFile.isFile()) {
+            return false;
+        }
+        String[] daemon = readContentsAsString(daemonFile).trim().split(" ");
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(daemon[0]));
+        } catch (ConnectException excp) {
+            // left behind by a daemon that was killed
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            out.write((daemon[1] + "\n" + Daemon.encode(args) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(Daemon.DONE)) {
+                    return true;
+                } else if (line.charAt(0) == Daemon.OUTPUT) {
+                    System.out.println(line.substring(1));
+                } else if (line.charAt(0) == Daemon.ERROR_OUTPUT) {
+                    System.err.println(line.substring(1));
+                } else if (line.charAt(0) == Daemon.FAILURE) {
+                    System.err.println(line.substring(1));
+                }
+            }
+        } catch (IOException excp) {
+            // fall through, we can't tell whether the command ran
+        }
+        System.err.println("The daemon went away before the command was done.");
+        System.exit(1);
+        return true;
+    }
+}
@@ -1,15 +1,23 @@
 package gitlet;
 
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.time.*;
 
 import static gitlet.Utils.*;
@@ -18,9 +26,32 @@ import static gitlet.Utils.*;
  *  Represents a gitlet commit object.
  *  does at a high level.
  *
+ *  The files of a commit are in a {@link Tree} per directory, the commit only refers
+ *  to the root tree, so commits share every directory they don't change.
+ *
+ *  A commit is saved in a compact binary form (see {@link #encode}):
+ *  MAGIC, VERSION, hash (20 bytes), flags (byte: HAS_PARENT, HAS_SECOND_PARENT, MERGED),
+ *  the parent hashes present (20 bytes each), timestamp (epoch seconds long, nanos int),
+ *  message, merged-into branch, then the hash of the root tree (20 bytes).
+ *  Strings are their length (int) followed by their UTF-8 bytes.
+ *  Version 1 commits had no trees but number of blobs (int), then [file name, blob hash
+ *  (20 bytes)] for each instead of the root tree; they are still read, as are commits
+ *  saved by older versions with Java serialization, see {@link Migration}.
+ *
  *  @author AGX
  */
 public class Commit implements Serializable {
+    /** Serialization id of the commits older versions saved, so they can still be read. */
+    private static final long serialVersionUID = 3147491455344119472L;
+
+    private static final int MAGIC = 0x474c434d; // "GLCM"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITH_BLOBS = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final int HAS_PARENT = 1;
+    private static final int HAS_SECOND_PARENT = 2;
+    private static final int MERGED = 4;
+
     /**
      *
      *
@@ -35,7 +66,9 @@ public class Commit implements Serializable {
 
     private String hash;
 
-    /* blobs in the commit */
+    /* blobs in the commit, always a TreeMap so they are sorted by name.
+    Only commits made before trees have them saved, for the others they are
+    flattened from the tree on first use, see files() */
     Map<String, String> blobs; /* (name of the files, Hash of the Commit's blobs)
     and hashes stored in when invoking the add command for example
     we'll see if the hash in the blob in our map is the same as the one
@@ -46,7 +79,10 @@ public class Commit implements Serializable {
     /** Parent of this commit */
     String parentHash;
 
-    File location;
+    transient File location;
+
+    /** The repository this commit is in. */
+    transient Store store;
 
     String secondParentHash;
 
@@ -54,17 +90,24 @@ public class Commit implements Serializable {
 
     String mergedIntoBranch = "";
 
+    /** Whether this merge commit was made with conflicts, only known to the process that made it. */
+    transient boolean conflicted;
+
+    /** Hash of the root {@link Tree}, null for commits made before trees until treeHash() makes it. */
+    private String treeHash;
 
-    public Commit(Commit parent, Map<String, File> filesToBeAdded, String message, Instant timestamp,
+
+    public Commit(Commit parent, Map<String, String> filesToBeAdded, String message, Instant timestamp,
                   Set<String> filesToRemove) {
+        this.store = parent.store;
         this.parentHash = parent.getHash();
         this.message = message;
         this.timestamp = timestamp;
-        blobs = new HashMap<>();
-        adjustBlobs(filesToBeAdded, filesToRemove);
+        // only the trees of the directories on the way to a change are written
+        treeHash = Tree.update(store, fromFile(store, parentHash).treeHash(), filesToBeAdded, filesToRemove);
         // Each commit is identified by its SHA-1 id, which must include the file (blob)
         // references of its files, parent reference, log message, and commit time.
-        hash = sha1(this.blobs.toString(), parentHash, message, timestamp.toString());
+        hash = computeHash();
         saveCommit(hash);
         merged = false;
     }
@@ -73,18 +116,54 @@ public class Commit implements Serializable {
 
 
     public void printCommit() {
-        System.out.printf("===%n");
-        System.out.printf("commit %s%n", this.getHash());
+        System.out.print(formatCommit());
+    }
+
+    /** Returns the log entry of this commit, as printed by printCommit. */
+    public String formatCommit() {
+        StringBuilder entry = new StringBuilder(128);
+        String newline = System.lineSeparator();
+        entry.append("===").append(newline);
+        entry.append("commit ").append(this.getHash()).append(newline);
         if (merged) {
-            System.out.printf("Merge: %s %s%n", parentHash.substring(0, 8), secondParentHash.substring(0, 8));
+            entry.append("Merge: ").append(parentHash, 0, 8).append(' ')
+                    .append(secondParentHash, 0, 8).append(newline);
         }
-        System.out.printf("Date: %s%n", this.getFormattedTimestamp());
-        System.out.printf(this.getMessage());
-        System.out.println();
+        entry.append("Date: ").append(this.getFormattedTimestamp()).append(newline);
+        entry.append(this.getMessage()).append(newline);
+        return entry.toString();
     }
 
     public boolean checkIfFileIsPresent(File file) {
-        return blobs.containsKey(file.getName());
+        return blobHash(file.getName()) != null;
+    }
+
+    /**
+     * Returns the hash of the blob of the file PATH (relative to the working directory,
+     * with '/' between directories), or null if this commit doesn't have it. Only the
+     * trees on the way to the file are read.
+     */
+    public String blobHash(String path) {
+        if (blobs != null) {
+            return blobs.get(path);
+        }
+        return Tree.blobAt(store, treeHash, path);
+    }
+
+    /** Returns every file of this commit, (path, blob hash) sorted by path. */
+    public synchronized Map<String, String> files() {
+        if (blobs == null) {
+            blobs = Tree.files(store, treeHash);
+        }
+        return blobs;
+    }
+
+    /** Returns the hash of the root tree of this commit, writing the trees of a commit made before trees. */
+    public synchronized String treeHash() {
+        if (treeHash == null) {
+            treeHash = Tree.fromFiles(store, blobs);
+        }
+        return treeHash;
     }
 
     public Instant getTimestamp() {
@@ -99,7 +178,7 @@ public class Commit implements Serializable {
         if (Hash == null) {
             return null;
         }
-        return fromFile(Hash);
+        return fromFile(store, Hash);
     }
 
     public Commit getSecondParent() {
@@ -110,22 +189,153 @@ public class Commit implements Serializable {
         return message;
     }
 
-    public static Commit fromFile(String hash) {
+    /**
+     * Returns the commit HASH of STORE, or null if there is no such commit.
+     * Commits are looked up in the {@link CommitCache} of STORE before going to disk.
+     */
+    public static Commit fromFile(Store store, String hash) {
         if (hash == null) {
             return null;
         }
-        File commitFile = join(Repository.COMMIT_DIR, hash);
-        if (!commitFile.exists()) {
+        long start = Trace.start();
+        Commit commit = store.commits.get(hash);
+        if (commit != null) {
+            Trace.COMMIT_READ.record(start, 0);
+            return commit;
+        }
+        byte[] encoded = readEncoded(store, hash);
+        commit = encoded == null ? null : decode(encoded);
+        if (commit != null) {
+            commit.store = store;
+            store.commits.put(commit);
+        }
+        Trace.COMMIT_READ.record(start, encoded == null ? 0 : encoded.length);
+        return commit;
+    }
+
+    /** Returns the binary form of the commit HASH, or null if there is no such commit. */
+    private static byte[] readEncoded(Store store, String hash) {
+        File commitFile = join(store.commitDir, hash);
+        if (commitFile.exists()) {
+            return readContents(commitFile);
+        }
+        // not loose, it may have been folded into the pack by repack
+        Pack pack = Pack.open(store);
+        if (pack == null) {
             return null;
         }
-        return readObject(commitFile, Commit.class);
+        return pack.read(hash, Pack.COMMIT);
+    }
+
+    /** Returns this commit in its binary form, see the class comment. */
+    byte[] encode() {
+        String tree = treeHash();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 + message.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(toBytes(hash));
+            out.writeByte((parentHash != null ? HAS_PARENT : 0)
+                    | (secondParentHash != null ? HAS_SECOND_PARENT : 0)
+                    | (merged ? MERGED : 0));
+            if (parentHash != null) {
+                out.write(toBytes(parentHash));
+            }
+            if (secondParentHash != null) {
+                out.write(toBytes(secondParentHash));
+            }
+            out.writeLong(timestamp.getEpochSecond());
+            out.writeInt(timestamp.getNano());
+            writeString(out, message);
+            writeString(out, mergedIntoBranch == null ? "" : mergedIntoBranch);
+            out.write(toBytes(tree));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the commit encoded in BYTES, either by {@link #encode} or, for commits
+     * older versions saved, by Java serialization.
+     * The fields are sliced straight out of BYTES, with no intermediate stream.
+     */
+    static Commit decode(byte[] bytes) {
+        if (bytes.length >= 2 && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed) {
+            // STREAM_MAGIC of Java serialization, older versions kept the blobs in a HashMap
+            Commit commit = deserialize(bytes, Commit.class);
+            commit.blobs = new TreeMap<>(commit.blobs);
+            return commit;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            int version = in.getInt() == MAGIC ? in.getInt() : -1;
+            if (version != VERSION && version != VERSION_WITH_BLOBS) {
+                throw new IllegalArgumentException("corrupt commit");
+            }
+            Commit commit = new Commit();
+            commit.hash = readHash(in);
+            int flags = in.get();
+            commit.parentHash = (flags & HAS_PARENT) != 0 ? readHash(in) : null;
+            commit.secondParentHash = (flags & HAS_SECOND_PARENT) != 0 ? readHash(in) : null;
+            commit.merged = (flags & MERGED) != 0;
+            commit.timestamp = Instant.ofEpochSecond(in.getLong(), in.getInt());
+            commit.message = readString(in);
+            commit.mergedIntoBranch = readString(in);
+            if (version == VERSION) {
+                commit.treeHash = readHash(in);
+                return commit;
+            }
+            commit.blobs = new TreeMap<>();
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                commit.blobs.put(readString(in), readHash(in));
+            }
+            return commit;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt commit");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String result = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return result;
+    }
+
+    private static String readHash(ByteBuffer in) {
+        String result = toHex(in.array(), in.position(), HASH_BYTES);
+        in.position(in.position() + HASH_BYTES);
+        return result;
+    }
+
+    /**
+     * The hashes of every commit of STORE, loose or packed, in sorted order.
+     */
+    public static List<String> allHashes(Store store) {
+        Set<String> hashes = new TreeSet<>();
+        List<String> looseCommits = plainFilenamesIn(store.commitDir);
+        if (looseCommits != null) {
+            hashes.addAll(looseCommits);
+        }
+        Pack pack = Pack.open(store);
+        if (pack != null) {
+            hashes.addAll(pack.hashes(Pack.COMMIT));
+        }
+        return new ArrayList<>(hashes);
     }
 
     private void saveCommit(String Hash) {
 
-        File commitFile = Utils.join(Repository.COMMIT_DIR, Hash);
+        File commitFile = Utils.join(store.commitDir, Hash);
 
-        Repository.COMMIT_DIR.mkdirs();
+        store.commitDir.mkdirs();
 
         try {
             if (!commitFile.exists()) {
@@ -138,65 +348,76 @@ public class Commit implements Serializable {
             return;
         }
 
-        writeObject(commitFile, this);
+        writeContents(commitFile, encode());
+        CommitGraph.append(store, this);
+        CommitIndex.add(store, Hash);
+        MessageIndex.add(store, Hash, message);
 
         location = commitFile;
     }
 
-    private void adjustBlobs(Map<String, File> filesToBeAdded, Set<String> filesToRemove) {
-        Commit parent = fromFile(parentHash);
-        Map<String, String> parentBlobs = parent.blobs;
-        for (Map.Entry<String, String> entry : parentBlobs.entrySet()) {
-            if (filesToRemove.contains(entry.getKey())) {
-                continue;
-            }
-            if (filesToBeAdded.containsKey(entry.getKey())) {
-                this.blobs.put(entry.getKey(), (new Blob(filesToBeAdded.get(entry.getKey()))).getHash());
-            } else {
-                this.blobs.put(entry.getKey(), entry.getValue());
-            }
+    /**
+     * Returns the id of this commit, the SHA-1 of this canonical encoding of it:
+     *   "parent " hash "\n" for each parent, "tree " root tree hash "\n",
+     *   "date " timestamp "\n", "message " length "\n" message "\n".
+     * The root tree hash stands for every file of the commit, since trees are named by
+     * the hash of their sorted entries.
+     */
+    private String computeHash() {
+        StringBuilder header = new StringBuilder(256);
+        if (parentHash != null) {
+            header.append("parent ").append(parentHash).append('\n');
         }
-
-        for (Map.Entry<String, File> entry : filesToBeAdded.entrySet()) {
-            if (!this.blobs.containsKey(entry.getKey())) {
-                this.blobs.put(entry.getKey(), (new Blob(filesToBeAdded.get(entry.getKey()))).getHash());
-            }
+        if (secondParentHash != null) {
+            header.append("parent ").append(secondParentHash).append('\n');
         }
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        header.append("tree ").append(treeHash).append('\n');
+        header.append("date ").append(timestamp).append('\n');
+        header.append("message ").append(messageBytes.length).append('\n');
+        return sha1(header.toString(), messageBytes, "\n");
     }
 
 
-    public Commit(String message, Instant timestamp) {
+    /** Used by decode, which fills in the fields. */
+    private Commit() {
+    }
+
+    public Commit(Store store, String message, Instant timestamp) {
+        this.store = store;
         this.message = message;
         this.timestamp = timestamp;
         parentHash = null;
         secondParentHash = null;
-        blobs = new HashMap<>();
-        this.hash = sha1(message, timestamp.toString());
+        treeHash = Tree.fromFiles(store, new TreeMap<>());
+        this.hash = computeHash();
         saveCommit(hash);
     }
 
     public Commit(Commit firstParent, Commit secondParent, Commit splitPoint, String currentBranch,
                   String mergedIntoBranch, Instant timestamp, Repository repo) {
+        this.store = repo.store;
         this.parentHash = firstParent.getHash();
         this.secondParentHash = secondParent.getHash();
         this.timestamp = timestamp;
-        blobs = new HashMap<>();
+        blobs = new TreeMap<>();
         this.message = String.format("Merged %s into %s.", mergedIntoBranch, currentBranch);
-        if (merge(splitPoint, firstParent, secondParent, repo)) {
-            System.out.println("Encountered a merge conflict.");
-        }
-        hash = sha1(this.blobs.toString(), parentHash, secondParentHash, message, timestamp.toString());
+        conflicted = merge(splitPoint, firstParent, secondParent, repo);
+        treeHash = Tree.fromFiles(store, blobs);
+        hash = computeHash();
         saveCommit(hash);
         merged = true;
         this.mergedIntoBranch = mergedIntoBranch;
     }
 
     private boolean merge(Commit splitPoint, Commit HEAD, Commit branch, Repository repo) {
-        Map<String, String> filesInCurrentBranch = HEAD.blobs;
-        Map<String, String> filesInOtherBranch = branch.blobs;
+        // a merge looks at every file, so it works on the flattened trees
+        Map<String, String> filesInCurrentBranch = HEAD.files();
+        Map<String, String> filesInOtherBranch = branch.files();
+        Map<String, String> filesInSplitPoint = splitPoint.files();
         boolean confilctDetected = false;
 
-        for (Map.Entry<String, String> entry : splitPoint.blobs.entrySet()) {
+        for (Map.Entry<String, String> entry : filesInSplitPoint.entrySet()) {
             String fileName = entry.getKey();
             String splitHash = entry.getValue();
             String currentHash = filesInCurrentBranch.get(fileName);
@@ -207,7 +428,7 @@ public class Commit implements Serializable {
                 if (!currentHash.equals(otherHash) && currentHash.equals(splitHash)) {
                     // file is unchanged in current branch
                     this.blobs.put(entry.getKey(), otherHash);
-                    writeToFileFromBlob(fileName, Blob.fromFile(otherHash));
+                    writeToFileFromBlob(fileName, Blob.fromFile(store, otherHash));
                 } else if (!currentHash.equals(otherHash) && otherHash.equals(splitHash)) {
                     // file is unchanged in other branch
                     this.blobs.put(entry.getKey(), currentHash);
@@ -215,9 +436,9 @@ public class Commit implements Serializable {
                         !currentHash.equals(splitHash)) {
                     // file is modified in both
                     // conflict
-                    File conflict = conflictFile(entry.getKey(), Blob.fromFile(currentHash),
-                            Blob.fromFile(otherHash));
-                    blobs.put(entry.getKey(), (new Blob(conflict)).getHash());
+                    File conflict = conflictFile(entry.getKey(), Blob.fromFile(store, currentHash),
+                            Blob.fromFile(store, otherHash));
+                    blobs.put(entry.getKey(), (new Blob(store, conflict)).getHash());
                     // stageFile(conflict);
                     confilctDetected = true;
                 } else if (currentHash.equals(otherHash) && otherHash.equals(splitHash)) {
@@ -227,20 +448,20 @@ public class Commit implements Serializable {
                 }
             } else if (currentHash != null && otherHash == null) {
                 if (currentHash.equals(splitHash)) {
-                    restrictedDelete(join(Repository.CWD, fileName)); // delete it
+                    repo.deleteWorkingFile(fileName); // delete it
                 } else {
                     // conflict : modified in HEAD but not present in other Branch
                     File conflict = conflictFile(entry.getKey(),
-                            Blob.fromFile(currentHash),
-                            Blob.fromFile(otherHash));
-                    blobs.put(fileName, (new Blob(conflict)).getHash());
+                            Blob.fromFile(store, currentHash),
+                            Blob.fromFile(store, otherHash));
+                    blobs.put(fileName, (new Blob(store, conflict)).getHash());
                     confilctDetected = true;
                 }
             } else if (otherHash != null && currentHash == null) {
                 if (!otherHash.equals(splitHash)) {
                     File conflict = conflictFile(entry.getKey(),
-                            Blob.fromFile(currentHash), Blob.fromFile(otherHash));
-                    blobs.put(entry.getKey(), (new Blob(conflict)).getHash());
+                            Blob.fromFile(store, currentHash), Blob.fromFile(store, otherHash));
+                    blobs.put(entry.getKey(), (new Blob(store, conflict)).getHash());
 
                     confilctDetected = true;
                 }
@@ -253,7 +474,7 @@ public class Commit implements Serializable {
 
         for (Map.Entry<String, String> entry : filesInCurrentBranch.entrySet()) {
             // not in split nor in other branch
-            if (!splitPoint.blobs.containsKey(entry.getKey()) && !filesInOtherBranch.containsKey(entry.getKey())) {
+            if (!filesInSplitPoint.containsKey(entry.getKey()) && !filesInOtherBranch.containsKey(entry.getKey())) {
                 blobs.put(entry.getKey(), entry.getValue());
             }
         }
@@ -262,20 +483,21 @@ public class Commit implements Serializable {
 
         for (Map.Entry<String, String> entry : filesInOtherBranch.entrySet()) {
             // not in split nor in HEAD
-            if (!splitPoint.blobs.containsKey(entry.getKey()) && !filesInCurrentBranch.containsKey(entry.getKey())) {
+            if (!filesInSplitPoint.containsKey(entry.getKey()) && !filesInCurrentBranch.containsKey(entry.getKey())) {
                 blobs.put(entry.getKey(), entry.getValue());
-                writeToFileFromBlob(entry.getKey(), Blob.fromFile(filesInOtherBranch.get(entry.getKey())));
+                writeToFileFromBlob(entry.getKey(),
+                        Blob.fromFile(store, filesInOtherBranch.get(entry.getKey())));
             } else if (filesInCurrentBranch.containsKey(entry.getKey())
-                    && !splitPoint.blobs.containsKey(entry.getKey())) {
+                    && !filesInSplitPoint.containsKey(entry.getKey())) {
                 // file is present in current branch and other branch but not in split point
                 if (filesInCurrentBranch.get(entry.getKey()).equals(entry.getValue())) {
                     blobs.put(entry.getKey(), entry.getValue());
                 } else {
                     // conflict
                     File conflict = conflictFile(entry.getKey(),
-                            Blob.fromFile(filesInCurrentBranch.get(entry.getKey())),
-                            Blob.fromFile(filesInOtherBranch.get(entry.getKey())));
-                    blobs.put(entry.getKey(), (new Blob(conflict)).getHash());
+                            Blob.fromFile(store, filesInCurrentBranch.get(entry.getKey())),
+                            Blob.fromFile(store, filesInOtherBranch.get(entry.getKey())));
+                    blobs.put(entry.getKey(), (new Blob(store, conflict)).getHash());
                     confilctDetected = true;
                 }
             }
@@ -285,30 +507,31 @@ public class Commit implements Serializable {
 
 
     private File conflictFile(String fileName, Blob currBlobObj, Blob givenBlobObj) {
-        File conflictFile = join(Repository.CWD, fileName);
+        long start = Trace.start();
+        File conflictFile = join(store.root, fileName);
+        conflictFile.getParentFile().mkdirs();
         try {
             if (!conflictFile.exists()) {
                 conflictFile.createNewFile();
             }
         } catch (IOException e) {
-            System.out.println("couldn't create file");
-            System.exit(0);
+            throw error("couldn't create file");
         }
 
-        String currContent = "";
+        byte[] currContent = new byte[0];
         if (currBlobObj != null) {
             currContent = currBlobObj.getContent();
         }
 
-        String givenContent = "";
+        byte[] givenContent = new byte[0];
         if (givenBlobObj != null) {
             givenContent = givenBlobObj.getContent();
         }
 
 
 
-        String content = "<<<<<<< HEAD\n" + currContent + "=======\n" + givenContent + ">>>>>>>\n";
-        writeContents(conflictFile, content);
+        writeContents(conflictFile, "<<<<<<< HEAD\n", currContent, "=======\n", givenContent, ">>>>>>>\n");
+        Trace.WORKTREE_WRITE.record(start, conflictFile.length());
 
 
         return conflictFile;
@@ -319,20 +542,23 @@ public class Commit implements Serializable {
     }
 
     private void writeToFileFromBlob(String fileName, Blob blob) {
-        File file = join(Repository.CWD, fileName);
+        File file = join(store.root, fileName);
+        file.getParentFile().mkdirs();
         try {
             if (!file.exists()) {
                 file.createNewFile();
             }
-            writeContents(file, blob.getContent());
+            blob.writeTo(file);
         } catch (IOException e) {
-            System.out.println("couldn't create file");
-            System.exit(0);
+            throw error("couldn't create file");
         }
     }
 
 
 
+    /** Format of the dates in log entries. DateTimeFormatter is immutable, so it is shared. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("E MMM d HH:mm:ss yyyy Z");
+
     // made with chatgpt to get formatted timestamp
     public String getFormattedTimestamp() {
         // Get the system default time zone
@@ -342,8 +568,7 @@ public class Commit implements Serializable {
         ZonedDateTime zonedDateTime = timestamp.atZone(zoneId);
 
         // Format ZonedDateTime to the desired string format
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("E MMM d HH:mm:ss yyyy Z");
-        String formattedDateTime = zonedDateTime.format(formatter);
+        String formattedDateTime = zonedDateTime.format(DATE_FORMAT);
 
 
         return formattedDateTime;
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of the decoded commits of one repository.
+ * Every commit lookup goes through {@link Commit#fromFile}, which asks the cache of
+ * the {@link Store} first, so walking the same ancestors several times in one command reads each
+ * commit from disk only once. Commits never change once created, so entries are
+ * never invalidated, only evicted.
+ * The capacity is the number of commits kept, set with -Dgitlet.commitCacheSize.
+ *
+ *  @author AGX
+ */
+class CommitCache {
+
+    /** Default number of commits kept. */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int CAPACITY = Integer.getInteger("gitlet.commitCacheSize", DEFAULT_CAPACITY);
+
+    private final Map<String, Commit> cache =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > CAPACITY;
+                }
+            };
+
+    private long hits;
+    private long misses;
+
+    /** Returns the cached commit HASH, or null, counting the hit or miss. */
+    synchronized Commit get(String hash) {
+        Commit commit = cache.get(hash);
+        if (commit == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return commit;
+    }
+
+    /** Caches COMMIT. */
+    synchronized void put(Commit commit) {
+        cache.put(commit.getHash(), commit);
+    }
+
+    /** Number of lookups answered from the cache. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Number of lookups that had to go to disk. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Number of commits currently cached. */
+    synchronized int size() {
+        return cache.size();
+    }
+
+    /** Empties the cache and resets the counters. */
+    synchronized void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -0,0 +1,401 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * The commit-graph file: the shape of the history in one compact array, so history
+ * walks don't have to deserialize any Commit.
+ *
+ * commit-graph     : MAGIC, VERSION, then the records.
+ * commit-graph.idx : the lookup table, a {@link SortedIndex} of [hash (20 bytes),
+ *                    position (int)] for each record, so a hash is found with a binary
+ *                    search. It is rebuilt from the records if it doesn't cover them all.
+ *
+ * Every commit gets one fixed-size record, appended when the commit is created, so a
+ * commit's parents always come before it:
+ *
+ * [hash (20 bytes), first parent position (int), second parent position (int),
+ *  generation (int), timestamp in epoch millis (long)]
+ *
+ * A missing parent is -1. The generation of a root commit is 1, and every other
+ * commit's generation is one more than the largest generation of its parents, so
+ * a commit can never be an ancestor of a commit with a smaller or equal generation.
+ *
+ *  @author AGX
+ */
+class CommitGraph {
+
+    /** The commit-graph file, in the .gitlet directory. */
+    static final String GRAPH_FILE = "commit-graph";
+
+    /** The lookup table of GRAPH_FILE, in the .gitlet directory. */
+    static final String LOOKUP_FILE = "commit-graph.idx";
+
+    private static final int MAGIC = 0x474c4347; // "GLCG"
+    private static final int LOOKUP_MAGIC = 0x474c434c; // "GLCL"
+    private static final int VERSION = 3;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final int HEADER = 8;
+    private static final int ENTRY_SIZE = HASH_BYTES + 4;
+    private static final int RECORD_SIZE = HASH_BYTES + 4 + 4 + 4 + 8;
+
+    /** The repository of the graph. */
+    private final Store store;
+    /** The graph file as it was mapped. */
+    private final ByteBuffer file;
+    /** Number of records in FILE. */
+    private final int mapped;
+    /** The records this process appended since FILE was mapped. */
+    private ByteBuffer appended = ByteBuffer.allocate(0);
+    private int count;
+    /** The lookup table. */
+    private final SortedIndex lookup;
+
+    private CommitGraph(Store store, ByteBuffer file, int mapped) {
+        this.store = store;
+        this.file = file;
+        this.mapped = mapped;
+        this.count = mapped;
+        this.lookup = new SortedIndex(store.file(LOOKUP_FILE), LOOKUP_MAGIC, ENTRY_SIZE);
+    }
+
+    /**
+     * Returns the commit graph of the repository STORE, rebuilding the file if it is
+     * missing. It is loaded once and kept in STORE, until another process changes the file.
+     */
+    static CommitGraph load(Store store) {
+        if (store.graph != null) {
+            return store.graph;
+        }
+        if (!store.file(GRAPH_FILE).isFile()) {
+            rebuild(store);
+        }
+        CommitGraph graph = map(store);
+        if (graph == null) {
+            // written by an older version, or cut short
+            rebuild(store);
+            graph = map(store);
+        }
+        if (!graph.lookup.exists() || graph.lookup.size() + graph.lookup.journal().size() != graph.count) {
+            graph.index();
+        }
+        store.graph = graph;
+        return graph;
+    }
+
+    /** Returns the graph of the GRAPH_FILE of STORE, or null if it isn't one. */
+    private static CommitGraph map(Store store) {
+        try (FileChannel channel = FileChannel.open(store.file(GRAPH_FILE).toPath())) {
+            long size = channel.size();
+            if (size < HEADER) {
+                return null;
+            }
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long records = size - HEADER;
+            if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || records % RECORD_SIZE != 0) {
+                return null;
+            }
+            return new CommitGraph(store, file, (int) (records / RECORD_SIZE));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Drops the graph loaded from STORE, so the next load maps the file again. */
+    static void forget(Store store) {
+        store.graph = null;
+    }
+
+    /** Appends the record of the new COMMIT of STORE, whose parents must already be in the graph. */
+    static void append(Store store, Commit commit) {
+        File graphFile = store.file(GRAPH_FILE);
+        if (!graphFile.isFile()) {
+            // COMMIT is already saved, so rebuilding picks it up
+            rebuild(store);
+            return;
+        }
+        CommitGraph graph = load(store);
+        if (graphFile.length() != graph.length()) {
+            // another process changed it since it was loaded
+            store.graph = null;
+            graph = load(store);
+        }
+        int first = graph.position(commit.parentHash);
+        int second = graph.position(commit.secondParentHash);
+        if ((commit.parentHash != null && first < 0) || (commit.secondParentHash != null && second < 0)) {
+            // the graph is out of date, start over
+            graphFile.delete();
+            store.graph = null;
+            return;
+        }
+        int generation = 1 + Math.max(graph.generation(first), graph.generation(second));
+        ByteBuffer record = record(commit.getHash(), first, second, generation,
+                commit.getTimestamp().toEpochMilli());
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(), StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        record.flip();
+        graph.add(record);
+        graph.lookup.add(entry(commit.getHash(), graph.count - 1));
+    }
+
+    /** Adds RECORD, just appended to the file, to the graph in memory. */
+    private void add(ByteBuffer record) {
+        int used = (count - mapped) * RECORD_SIZE;
+        if (used + RECORD_SIZE > appended.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(64 * RECORD_SIZE, 2 * appended.capacity()));
+            larger.put(appended.duplicate().position(0).limit(used));
+            appended = larger;
+        }
+        appended.position(used);
+        appended.put(record);
+        count += 1;
+    }
+
+    /** The size of the graph file this graph was read from, plus what it appended to it. */
+    private long length() {
+        return HEADER + (long) count * RECORD_SIZE;
+    }
+
+    /** Rewrites the lookup table from every record of the graph. */
+    private void index() {
+        ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE);
+        for (int i = 0; i < count; i += 1) {
+            entries.put(buffer(i).duplicate().position(offset(i)).limit(offset(i) + HASH_BYTES));
+            entries.putInt(i);
+        }
+        entries.flip();
+        lookup.write(entries);
+    }
+
+    /**
+     * Rewrites the graph file of STORE from the commit objects, parents first.
+     * Only needed when the file is missing or out of date.
+     */
+    static void rebuild(Store store) {
+        List<String> order = new ArrayList<>();
+        Map<String, Commit> commits = new HashMap<>();
+        for (String hash : Commit.allHashes(store)) {
+            commits.put(hash, Commit.fromFile(store, hash));
+        }
+        // iterative post-order DFS so parents are written before their children
+        Set<String> done = new HashSet<>();
+        for (String start : commits.keySet()) {
+            List<String> stack = new ArrayList<>();
+            stack.add(start);
+            while (!stack.isEmpty()) {
+                String hash = stack.get(stack.size() - 1);
+                if (done.contains(hash)) {
+                    stack.remove(stack.size() - 1);
+                    continue;
+                }
+                Commit commit = commits.get(hash);
+                boolean ready = true;
+                for (String parent : Arrays.asList(commit.parentHash, commit.secondParentHash)) {
+                    if (parent != null && commits.containsKey(parent) && !done.contains(parent)) {
+                        stack.add(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.remove(stack.size() - 1);
+                    done.add(hash);
+                    order.add(hash);
+                }
+            }
+        }
+
+        Map<String, Integer> positions = new HashMap<>();
+        int[] generations = new int[order.size()];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(order.size() * RECORD_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int i = 0; i < order.size(); i += 1) {
+                Commit commit = commits.get(order.get(i));
+                int first = positions.getOrDefault(commit.parentHash, -1);
+                int second = positions.getOrDefault(commit.secondParentHash, -1);
+                generations[i] = 1 + Math.max(first < 0 ? 0 : generations[first],
+                        second < 0 ? 0 : generations[second]);
+                out.write(toBytes(commit.getHash()));
+                out.writeInt(first);
+                out.writeInt(second);
+                out.writeInt(generations[i]);
+                out.writeLong(commit.getTimestamp().toEpochMilli());
+                positions.put(commit.getHash(), i);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        File tmp = store.file(GRAPH_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (ByteBuffer part : new ByteBuffer[] {header, ByteBuffer.wrap(bytes.toByteArray())}) {
+                while (part.hasRemaining()) {
+                    channel.write(part);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), store.file(GRAPH_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        store.graph = null;
+        map(store).index();
+    }
+
+    /**
+     * Returns the hash of the latest common ancestor of the commits HASH1 and HASH2,
+     * or null if they have none.
+     * Both sides are walked together in decreasing generation order, marking each
+     * commit with the side(s) it was reached from. Since a commit is only popped once
+     * all of its children have been, the first commit popped with both marks is a
+     * common ancestor with the largest generation, and the walk stops right there
+     * instead of expanding the whole history.
+     */
+    String mergeBase(String hash1, String hash2) {
+        int start1 = position(hash1);
+        int start2 = position(hash2);
+        if (start1 < 0 || start2 < 0) {
+            return null;
+        }
+        final int fromOne = 1;
+        final int fromTwo = 2;
+        Map<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(generation(b), generation(a));
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(timestamp(b), timestamp(a));
+        });
+        marks.put(start1, fromOne);
+        marks.merge(start2, fromTwo, (a, b) -> a | b);
+        queue.add(start1);
+        if (start2 != start1) {
+            queue.add(start2);
+        }
+        while (!queue.isEmpty()) {
+            int commit = queue.poll();
+            int mark = marks.get(commit);
+            if (mark == (fromOne | fromTwo)) {
+                return hashAt(commit);
+            }
+            for (int parent : new int[] {firstParent(commit), secondParent(commit)}) {
+                if (parent < 0) {
+                    continue;
+                }
+                Integer old = marks.get(parent);
+                if (old == null) {
+                    marks.put(parent, mark);
+                    queue.add(parent);
+                } else if ((old | mark) != old) {
+                    marks.put(parent, old | mark);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the position of HASH in the graph, or -1, as found in the lookup table. */
+    int position(String hash) {
+        if (hash == null || hash.length() != UID_LENGTH) {
+            return -1;
+        }
+        List<byte[]> found = lookup.find(toBytes(hash));
+        if (found.isEmpty()) {
+            return -1;
+        }
+        return ByteBuffer.wrap(found.get(0)).getInt(HASH_BYTES);
+    }
+
+    /** Number of commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns true if HASH is in the graph. */
+    boolean contains(String hash) {
+        return position(hash) >= 0;
+    }
+
+    /** The buffer holding the record at position I. */
+    private ByteBuffer buffer(int i) {
+        return i < mapped ? file : appended;
+    }
+
+    /** Where the record at position I starts in buffer(I). */
+    private int offset(int i) {
+        return i < mapped ? HEADER + i * RECORD_SIZE : (i - mapped) * RECORD_SIZE;
+    }
+
+    String hashAt(int i) {
+        byte[] hash = new byte[HASH_BYTES];
+        buffer(i).get(offset(i), hash);
+        return toHex(hash);
+    }
+
+    int firstParent(int i) {
+        return buffer(i).getInt(offset(i) + HASH_BYTES);
+    }
+
+    int secondParent(int i) {
+        return buffer(i).getInt(offset(i) + HASH_BYTES + 4);
+    }
+
+    /** The generation of the commit at position I, 0 for a missing commit (I < 0). */
+    int generation(int i) {
+        if (i < 0) {
+            return 0;
+        }
+        return buffer(i).getInt(offset(i) + HASH_BYTES + 8);
+    }
+
+    long timestamp(int i) {
+        return buffer(i).getLong(offset(i) + HASH_BYTES + 12);
+    }
+
+    /** The lookup table entry of the record of HASH at POSITION. */
+    private static byte[] entry(String hash, int position) {
+        return ByteBuffer.allocate(ENTRY_SIZE).put(toBytes(hash)).putInt(position).array();
+    }
+
+    private static ByteBuffer record(String hash, int first, int second, int generation, long timestamp) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(toBytes(hash));
+        record.putInt(first);
+        record.putInt(second);
+        record.putInt(generation);
+        record.putLong(timestamp);
+        record.flip();
+        return record;
+    }
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * A sorted index of all commit ids, so an abbreviated id is resolved with a binary
+ * search instead of listing every commit.
+ *
+ * commit-index     : a {@link SortedIndex} of the 20-byte ids.
+ * commit-index.new : its journal, the ids of commits created since it was last written.
+ *
+ * Both files are rebuilt from the commits if the index goes missing.
+ *
+ *  @author AGX
+ */
+class CommitIndex {
+
+    /** The sorted index file, in the .gitlet directory. */
+    static final String INDEX_FILE = "commit-index";
+
+    private static final int MAGIC = 0x474c4349; // "GLCI"
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+
+    private CommitIndex() {
+    }
+
+    /**
+     * Returns the ids of all commits of STORE whose id starts with PREFIX, in sorted order.
+     * More than one id means PREFIX is ambiguous. An empty PREFIX matches nothing.
+     */
+    static List<String> startingWith(Store store, String prefix) {
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return new ArrayList<>();
+        }
+        SortedIndex index = index(store);
+        if (!index.exists()) {
+            rebuild(store);
+        }
+        TreeSet<String> result = new TreeSet<>();
+        int count = index.size();
+        for (int i = index.lowerBound(toBytes(pad(prefix))); i < count; i += 1) {
+            String id = toHex(index.get(i));
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (byte[] entry : index.journal()) {
+            String id = toHex(entry);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Records the id HASH of a newly created commit of STORE. */
+    static void add(Store store, String hash) {
+        SortedIndex index = index(store);
+        if (!index.exists()) {
+            // HASH is already saved, so rebuilding picks it up
+            rebuild(store);
+            return;
+        }
+        index.add(toBytes(hash));
+    }
+
+    /** Rewrites the index from every commit of STORE and drops the journal. */
+    static void rebuild(Store store) {
+        List<String> hashes = Commit.allHashes(store);
+        ByteBuffer ids = ByteBuffer.allocate(hashes.size() * HASH_BYTES);
+        for (String hash : hashes) {
+            ids.put(toBytes(hash));
+        }
+        ids.flip();
+        index(store).write(ids);
+    }
+
+    private static SortedIndex index(Store store) {
+        return new SortedIndex(store.file(INDEX_FILE), MAGIC, HASH_BYTES);
+    }
+
+    /** Returns PREFIX padded with zeros to a full id, the smallest id starting with it. */
+    private static String pad(String prefix) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < UID_LENGTH) {
+            result.append('0');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A commit as {@link Gitlet} returns it: its id, parents, date, message and files.
+ * It can't change the commit it was read from. The files are only read, from the
+ * trees of the commit, the first time they are asked for, holding the lock of the
+ * repository as every call of {@link Gitlet} does.
+ *
+ *  @author AGX
+ */
+public final class CommitInfo {
+
+    private final Commit commit;
+    private final List<String> parents;
+    private Map<String, String> files;
+
+    CommitInfo(Commit commit) {
+        this.commit = commit;
+        List<String> parents = new ArrayList<>(2);
+        if (commit.parentHash != null) {
+            parents.add(commit.parentHash);
+        }
+        if (commit.secondParentHash != null) {
+            parents.add(commit.secondParentHash);
+        }
+        this.parents = Collections.unmodifiableList(parents);
+    }
+
+    public String getId() {
+        return commit.getHash();
+    }
+
+    /** Returns the ids of the parents, the first parent first, none for the first commit. */
+    public List<String> getParents() {
+        return parents;
+    }
+
+    public Instant getDate() {
+        return commit.getTimestamp();
+    }
+
+    public String getMessage() {
+        return commit.getMessage();
+    }
+
+    /** Returns every file of the commit, (path, blob hash) sorted by path. */
+    public synchronized Map<String, String> getFiles() {
+        if (files == null) {
+            synchronized (commit.store.lock) {
+                files = Collections.unmodifiableMap(commit.files());
+            }
+        }
+        return files;
+    }
+}
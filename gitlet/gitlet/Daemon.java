@@ -0,0 +1,303 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * A long-running process that serves commands on the repository of its working
+ * directory, so they don't pay for starting a JVM, and the commit cache, commit
+ * graph, pack and stat cache it loaded stay warm from one command to the next.
+ *
+ *     java gitlet.Main daemon           listens on a local port, see DAEMON_FILE
+ *     java gitlet.Main daemon --stdio   reads requests from stdin, answers on stdout
+ *
+ * The protocol is the same on both:
+ * request  : one line, the arguments of the command separated by tabs, with
+ *            backslash, tab, newline and carriage return escaped as \\, \t, \n and \r.
+ * response : "|" followed by each line the command prints, as it prints it, "#"
+ *            followed by each line it prints on stderr, such as the report of
+ *            --trace, then a line "." once the command is done. A command that fails unexpectedly
+ *            (not a Gitlet error, which is printed as usual) sends "!" and the
+ *            message before the ".". The daemon keeps serving either way.
+ * On a socket, the first line must be the token of DAEMON_FILE; any number of
+ * requests may follow. Commands run one at a time whatever the number of clients.
+ * {@link Client} is the command-line client.
+ *
+ * daemon : "port token", only readable by its owner. Written once the daemon
+ *          listens, deleted when it exits.
+ *
+ * Other processes may still use the repository. Before each command, the daemon
+ * checks the stat data of the files the caches come from, and if another process
+ * changed any of them since its last command, it drops them all and starts over.
+ * Objects are named by their hash and never change, so the commit cache stays.
+ *
+ *  @author AGX
+ */
+class Daemon {
+
+    /** The file telling clients where the daemon listens, in the .gitlet directory. */
+    static final String DAEMON_FILE = "daemon";
+
+    /** Marks a line the command printed. */
+    static final char OUTPUT = '|';
+    /** Marks a line the command printed on stderr. */
+    static final char ERROR_OUTPUT = '#';
+    /** Marks an unexpected failure of the command. */
+    static final char FAILURE = '!';
+    /** The line ending a response. */
+    static final String DONE = ".";
+
+    /** The repository served. */
+    private final Store store;
+
+    private Repository repo;
+
+    /** The daemon of the repository of STORE. */
+    Daemon(Store store) {
+        this.store = store;
+    }
+
+    /** Serves the requests read from stdin, answering on stdout, until stdin ends. */
+    void serve() {
+        try {
+            serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serves the requests read from IN, writing the responses to OUT, until IN ends. */
+    private void serve(BufferedReader in, OutputStream out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            respond(decode(line), out);
+        }
+    }
+
+    /**
+     * Listens on a free port of the loopback interface and serves every client that
+     * sends the token in a thread of its own, until the process is killed.
+     */
+    void listen() {
+        String token = newToken();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            File daemonFile = store.file(DAEMON_FILE);
+            File tmp = store.file(DAEMON_FILE + ".tmp");
+            tmp.delete();
+            tmp.createNewFile();
+            // nobody else gets the token
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            writeContents(tmp, server.getLocalPort() + " " + token + "\n");
+            Files.move(tmp.toPath(), daemonFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Runtime.getRuntime().addShutdownHook(new Thread(daemonFile::delete));
+            while (true) {
+                Socket socket = server.accept();
+                Thread client = new Thread(() -> accept(socket, token), "gitlet-client");
+                client.setDaemon(true);
+                client.start();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void accept(Socket socket, String token) {
+        try (Socket client = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = new BufferedOutputStream(client.getOutputStream())) {
+            // output is sent line by line as it is printed, don't hold small writes back
+            client.setTcpNoDelay(true);
+            if (token.equals(in.readLine())) {
+                serve(in, out);
+            }
+        } catch (IOException excp) {
+            // the client went away, nothing to answer
+        }
+    }
+
+    /** Runs the command ARGS and writes its response to OUT. */
+    private synchronized void respond(String[] args, OutputStream out) throws IOException {
+        Lines lines = new Lines(out, OUTPUT);
+        Lines errors = new Lines(out, ERROR_OUTPUT);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(lines, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try {
+            run(args);
+        } catch (RuntimeException excp) {
+            System.out.flush();
+            System.err.flush();
+            lines.end();
+            errors.end();
+            out.write((FAILURE + String.valueOf(excp)).replace('\n', ' ').getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        lines.end();
+        errors.end();
+        out.write((DONE + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Runs the command ARGS as Main would, on the repository kept in memory. */
+    private void run(String[] args) {
+        if (store.forgetIfChanged()) {
+            // changed by another process
+            repo = null;
+        }
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                throw error("The daemon is already running.");
+            }
+            Main.run(args, store, this::repository);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+            // the command may have stopped halfway through changing it
+            repo = null;
+        } catch (RuntimeException excp) {
+            repo = null;
+            throw excp;
+        } finally {
+            store.watch();
+        }
+    }
+
+    private Repository repository() {
+        if (repo == null) {
+            repo = Repository.fromFile(store);
+        }
+        return repo;
+    }
+
+    private static String newToken() {
+        byte[] token = new byte[16];
+        new SecureRandom().nextBytes(token);
+        return toHex(token);
+    }
+
+    /** Returns ARGS as a request line, without the line ending. */
+    static String encode(String... args) {
+        StringBuilder line = new StringBuilder();
+        for (String arg : args) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            for (int i = 0; i < arg.length(); i += 1) {
+                char c = arg.charAt(i);
+                switch (c) {
+                    case '\\': line.append("\\\\"); break;
+                    case '\t': line.append("\\t"); break;
+                    case '\n': line.append("\\n"); break;
+                    case '\r': line.append("\\r"); break;
+                    default: line.append(c);
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    /** Returns the arguments of the request LINE. */
+    static String[] decode(String line) {
+        if (line.isEmpty()) {
+            return new String[0];
+        }
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                args.add(arg.toString());
+                arg.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                char escaped = line.charAt(i);
+                arg.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                arg.append(c);
+            }
+        }
+        args.add(arg.toString());
+        return args.toArray(new String[0]);
+    }
+
+    /** Sends each line written to it to OUT after MARKER, as soon as it is complete. */
+    private static class Lines extends OutputStream {
+        private final OutputStream out;
+        private final char marker;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        Lines(OutputStream out, char marker) {
+            this.out = out;
+            this.marker = marker;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                send();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i += 1) {
+                if (b[i] == '\n') {
+                    line.write(b, start, i - start);
+                    send();
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, off + len - start);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        /** Sends what is left of the last line, if it didn't end with a newline. */
+        synchronized void end() throws IOException {
+            if (line.size() > 0) {
+                send();
+            }
+        }
+
+        private void send() throws IOException {
+            // stdout and stderr lines share OUT
+            synchronized (out) {
+                out.write(marker);
+                line.writeTo(out);
+                out.write('\n');
+            }
+            line.reset();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * A blob stored as the changes from another blob, its base, instead of a full copy.
+ * When `add` stores a new version of a file, the new contents are compared with the
+ * version in HEAD, and if most of them are found there, only a list of instructions
+ * is kept: copy a range of the base, or insert some new bytes. A one-line change to a
+ * large file then costs a few bytes. The base may itself be a delta, but chains are at
+ * most MAX_DEPTH long, after which the next version is stored in full again, so
+ * rebuilding a blob never reads more than MAX_DEPTH + 1 objects.
+ * Blob reads rebuild the contents transparently, see {@link Blob#open}.
+ *
+ * delta : MAGIC, VERSION, depth (int), base hash (20 bytes), length of the contents (long),
+ *         then the deflated instructions, each one of
+ *         [COPY (byte), offset in the base (long), length (int)] or
+ *         [INSERT (byte), length (int), bytes].
+ *
+ * Deltas live in DELTA_DIR, named by the hash of the contents they rebuild, until
+ * `repack` moves them into the pack.
+ *
+ *  @author AGX
+ */
+class Delta {
+
+    /** The directory of loose deltas, in the .gitlet directory. */
+    static final String DELTA_DIR = "deltas";
+
+    /** Longest chain of deltas, set with -Dgitlet.deltaDepth. 0 turns deltas off. */
+    static final int MAX_DEPTH = Math.max(0, Integer.getInteger("gitlet.deltaDepth", 10));
+
+    /** Files smaller than this are always stored in full. */
+    static final int MIN_SIZE = 512;
+
+    /** Files larger than this are always stored in full, as both versions are held in memory. */
+    static final int MAX_SIZE = 1 << 26;
+
+    private static final int MAGIC = 0x474c4454; // "GLDT"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final int HEADER = 4 + 4 + 4 + HASH_BYTES + 8;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    /** Length of the blocks of the base that are indexed, the shortest copy. */
+    private static final int BLOCK = 16;
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power BLOCK, to roll the first byte out of a hash. */
+    private static final int PRIME_POW;
+
+    static {
+        int pow = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            pow *= PRIME;
+        }
+        PRIME_POW = pow;
+    }
+
+    private Delta() {
+    }
+
+    /**
+     * Stores the contents CONTENTS, whose hash is HASH, in STORE as a delta against the
+     * blob BASE if that is worth it: the chain stays within MAX_DEPTH and the instructions take at
+     * most half the size of the contents. BASE is only read if it is stored and at most MAX_SIZE
+     * bytes long, as it is held in memory. Returns true if the delta was stored.
+     */
+    static boolean store(Store store, String hash, byte[] contents, String base) {
+        if (base == null || contents.length < MIN_SIZE || contents.length > MAX_SIZE) {
+            return false;
+        }
+        int depth = depth(store, base) + 1;
+        if (depth > MAX_DEPTH) {
+            return false;
+        }
+        Blob baseBlob = Blob.fromFile(store, base);
+        if (baseBlob == null || baseBlob.size() > MAX_SIZE) {
+            return false;
+        }
+        byte[] baseContents = baseBlob.getContent();
+        byte[] instructions = encode(baseContents, contents, contents.length / 2);
+        if (instructions == null) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + instructions.length / 2);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(depth);
+            out.write(toBytes(base));
+            out.writeLong(contents.length);
+            try (DeflaterOutputStream deflated = new DeflaterOutputStream(out)) {
+                deflated.write(instructions);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        store.file(DELTA_DIR).mkdir();
+        File tmp = store.file(DELTA_DIR, hash + ".tmp");
+        writeContents(tmp, bytes.toByteArray());
+        try {
+            Files.move(tmp.toPath(), store.file(DELTA_DIR, hash).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the blob HASH is stored in STORE as a delta, loose or packed.
+     * Only the delta's file or pack index entry is looked at, not the delta itself.
+     */
+    static boolean exists(Store store, String hash) {
+        if (store.file(DELTA_DIR, hash).isFile()) {
+            return true;
+        }
+        Pack pack = Pack.open(store);
+        return pack != null && pack.contains(hash, Pack.DELTA);
+    }
+
+    /** Returns the length of the chain of deltas of the blob HASH of STORE, 0 if it is stored in full. */
+    static int depth(Store store, String hash) {
+        byte[] delta = read(store, hash);
+        if (delta == null) {
+            return 0;
+        }
+        try {
+            return header(delta, hash).readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt delta " + hash);
+        }
+    }
+
+    /** Returns the length of the contents of the blob HASH of STORE, from the header of its delta. */
+    static long length(Store store, String hash) {
+        byte[] delta = read(store, hash);
+        if (delta == null) {
+            throw new IllegalArgumentException("missing delta " + hash);
+        }
+        try {
+            DataInputStream header = header(delta, hash);
+            header.readInt();
+            header.skipBytes(HASH_BYTES);
+            return header.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt delta " + hash);
+        }
+    }
+
+    /** Rebuilds the contents of the blob HASH of STORE from its delta and base. */
+    static byte[] apply(Store store, String hash) {
+        byte[] delta = read(store, hash);
+        if (delta == null) {
+            throw new IllegalArgumentException("missing delta " + hash);
+        }
+        String base;
+        long length;
+        try {
+            DataInputStream header = header(delta, hash);
+            header.readInt();
+            byte[] baseHash = new byte[HASH_BYTES];
+            header.readFully(baseHash);
+            base = toHex(baseHash);
+            length = header.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt delta " + hash);
+        }
+        Blob baseBlob = Blob.fromFile(store, base);
+        if (baseBlob == null) {
+            throw new IllegalArgumentException("missing base " + base + " of delta " + hash);
+        }
+        byte[] baseContents = baseBlob.getContent();
+        byte[] result = new byte[(int) length];
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(delta, HEADER, delta.length - HEADER)))) {
+            int n = 0;
+            while (n < result.length) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    long offset = in.readLong();
+                    int count = in.readInt();
+                    System.arraycopy(baseContents, (int) offset, result, n, count);
+                    n += count;
+                } else if (op == INSERT) {
+                    int count = in.readInt();
+                    in.readFully(result, n, count);
+                    n += count;
+                } else {
+                    throw new IllegalArgumentException("corrupt delta " + hash);
+                }
+            }
+        } catch (EOFException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta " + hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the delta of the blob HASH of STORE, loose or packed, or null if it isn't a delta. */
+    private static byte[] read(Store store, String hash) {
+        File file = store.file(DELTA_DIR, hash);
+        if (file.isFile()) {
+            return readContents(file);
+        }
+        Pack pack = Pack.open(store);
+        return pack == null ? null : pack.read(hash, Pack.DELTA);
+    }
+
+    /** Checks the header of DELTA and returns a stream positioned on its depth. */
+    private static DataInputStream header(byte[] delta, String hash) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        try {
+            if (delta.length < HEADER || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("corrupt delta " + hash);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt delta " + hash);
+        }
+        return in;
+    }
+
+    /**
+     * Returns the instructions that rebuild TARGET from BASE, or null if they would take
+     * more than LIMIT bytes.
+     * Every BLOCK bytes of BASE are indexed by their hash, and a rolling hash of the
+     * window of BLOCK bytes at each position of TARGET is looked up in that index. A
+     * block found in BASE is grown in both directions for as long as the bytes match and
+     * becomes a COPY, whatever lies between two copies becomes an INSERT.
+     */
+    static byte[] encode(byte[] base, byte[] target, int limit) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(1, blocks) * 2) * 2;
+        int[] keys = new int[size];
+        // offset of the block + 1, 0 for an empty slot
+        int[] offsets = new int[size];
+        for (int b = 0; b < blocks; b += 1) {
+            int h = hash(base, b * BLOCK);
+            int slot = h & (size - 1);
+            while (offsets[slot] != 0 && keys[slot] != h) {
+                slot = (slot + 1) & (size - 1);
+            }
+            if (offsets[slot] == 0) {
+                // the first block with a hash is the one kept
+                keys[slot] = h;
+                offsets[slot] = b * BLOCK + 1;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(limit, 1 << 16) + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int pending = 0;
+            int i = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int match = lookup(keys, offsets, h, base, target, i);
+                if (match < 0) {
+                    if (i + BLOCK < target.length) {
+                        h = h * PRIME - target[i] * PRIME_POW + target[i + BLOCK];
+                    }
+                    i += 1;
+                    continue;
+                }
+                int start = i;
+                int from = match;
+                while (start > pending && from > 0 && target[start - 1] == base[from - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = i + BLOCK;
+                int baseEnd = match + BLOCK;
+                while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                insert(out, target, pending, start);
+                out.writeByte(COPY);
+                out.writeLong(from);
+                out.writeInt(end - start);
+                if (bytes.size() > limit) {
+                    return null;
+                }
+                pending = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            }
+            insert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.size() > limit ? null : bytes.toByteArray();
+    }
+
+    /** Returns the offset in BASE of a block equal to the BLOCK bytes of TARGET at AT, hashed to H, or -1. */
+    private static int lookup(int[] keys, int[] offsets, int h, byte[] base, byte[] target, int at) {
+        int slot = h & (keys.length - 1);
+        while (offsets[slot] != 0) {
+            if (keys[slot] == h) {
+                int offset = offsets[slot] - 1;
+                return Arrays.equals(base, offset, offset + BLOCK, target, at, at + BLOCK) ? offset : -1;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private static void insert(DataOutputStream out, byte[] target, int from, int to) throws IOException {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Hash of the BLOCK bytes of BYTES at OFFSET, the one the rolling hash in encode keeps up to date. */
+    private static int hash(byte[] bytes, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            h = h * PRIME + bytes[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static gitlet.Utils.*;
+
+/** Builds a synthetic repository in the current directory for scale testing.
+ *  Its main program may be invoked as follows, in an empty directory:
+ *      java gitlet.Generator [--seed N] [--commits N] [--files N] [--dirs N]
+ *                            [--branches N] [--merges P] [--binary P] [--size N]
+ *  Everything goes through the Repository API as the commands would, and every
+ *  choice is drawn from a random generator seeded with SEED. Commits are dated one
+ *  minute apart from START, so the same options always build the same repository,
+ *  down to the commit ids.
+ *
+ *  Until COMMITS commits are made, each step either creates a branch (up to
+ *  BRANCHES, master included), switches to another branch, merges another branch
+ *  into the current one (with probability MERGES), or commits one to three
+ *  changes: a file edited, added or removed. Files start as FILES
+ *  files spread over DIRS nested directories, a BINARY share of them binary,
+ *  about SIZE bytes each. Text edits replace or append lines, binary ones
+ *  overwrite a range of bytes. A merge that conflicts is followed by a commit
+ *  resolving the conflicts with the side of the current branch.
+ *
+ *  @author AGX
+ */
+public class Generator {
+
+    /** The date of the first generated commit. */
+    static final Instant START = Instant.parse("2021-01-01T00:00:00Z");
+
+    private static final double BRANCH_RATE = 0.02;
+    private static final double SWITCH_RATE = 0.05;
+
+    long seed = 1;
+    int commits = 1000;
+    int files = 100;
+    int dirs = 10;
+    int branches = 8;
+    double merges = 0.05;
+    double binary = 0.1;
+    int size = 4096;
+
+    private SplittableRandom random;
+    private Repository repo;
+    /** The files of HEAD. */
+    private List<String> tracked;
+    private final List<String> branchNames = new ArrayList<>();
+    private int made;
+    private int mergesMade;
+    private int nextFile;
+
+    public static void main(String... args) {
+        Generator generator = new Generator();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--seed": generator.seed = Long.parseLong(value); break;
+                    case "--commits": generator.commits = Integer.parseInt(value); break;
+                    case "--files": generator.files = Integer.parseInt(value); break;
+                    case "--dirs": generator.dirs = Integer.parseInt(value); break;
+                    case "--branches": generator.branches = Integer.parseInt(value); break;
+                    case "--merges": generator.merges = Double.parseDouble(value); break;
+                    case "--binary": generator.binary = Double.parseDouble(value); break;
+                    case "--size": generator.size = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException excp) {
+            System.out.println("Usage: java gitlet.Generator [--seed N] [--commits N] [--files N] [--dirs N] "
+                    + "[--branches N] [--merges P] [--binary P] [--size N]");
+            System.exit(0);
+        }
+        File root = new File(System.getProperty("user.dir"));
+        if (new Store(root).exists()) {
+            System.out.println("A Gitlet version-control system already exists in the current directory.");
+            System.exit(0);
+        }
+        generator.run(root);
+        System.out.printf("%d commits, %d merges, %d branches, HEAD %s%n",
+                generator.made, generator.mergesMade, generator.branchNames.size(), generator.repo.HEADHash);
+    }
+
+    /** Builds the repository in the directory ROOT, which must not have one yet, and returns it. */
+    Repository run(File root) {
+        random = new SplittableRandom(seed);
+        PrintStream stdout = System.out;
+        // what the commands print, such as merge conflicts, is of no use here
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Store store = new Store(root);
+            new Repository(store).init();
+            repo = Repository.fromFile(store);
+            branchNames.add(repo.currentBranch);
+            tracked = new ArrayList<>();
+            for (int i = 0; i < files; i += 1) {
+                addFile();
+            }
+            commit();
+            while (made < commits) {
+                step();
+            }
+            repo.save();
+        } finally {
+            System.setOut(stdout);
+        }
+        return repo;
+    }
+
+    private void step() {
+        double r = random.nextDouble();
+        if (r < BRANCH_RATE && branchNames.size() < branches) {
+            String name = "branch-" + branchNames.size();
+            repo.branch(name);
+            branchNames.add(name);
+            return;
+        }
+        r = random.nextDouble();
+        if (branchNames.size() > 1 && r < SWITCH_RATE) {
+            try {
+                repo.checkout(otherBranch(), false);
+            } catch (GitletException excp) {
+                // refused, such as with an untracked file in the way; try something else
+                return;
+            }
+            tracked = new ArrayList<>(Commit.fromFile(repo.store, repo.HEADHash).files().keySet());
+            return;
+        }
+        if (branchNames.size() > 1 && r < SWITCH_RATE + merges) {
+            MergeResult result;
+            try {
+                result = repo.merge(otherBranch(), nextTimestamp());
+            } catch (GitletException excp) {
+                // refused, such as with an untracked file in the way; try something else
+                return;
+            }
+            if (result.getOutcome() != MergeResult.Outcome.ANCESTOR) {
+                if (result.getOutcome() != MergeResult.Outcome.FAST_FORWARD) {
+                    made += 1;
+                    mergesMade += 1;
+                }
+                if (result.getOutcome() == MergeResult.Outcome.CONFLICT && made < commits) {
+                    resolve();
+                }
+                tracked = new ArrayList<>(Commit.fromFile(repo.store, repo.HEADHash).files().keySet());
+            }
+            return;
+        }
+        int changes = 1 + random.nextInt(3);
+        for (int i = 0; i < changes; i += 1) {
+            double action = random.nextDouble();
+            if (action < 0.1 && tracked.size() > 1) {
+                String file = tracked.remove(random.nextInt(tracked.size()));
+                repo.rm(file);
+            } else if (action < 0.3 || tracked.isEmpty()) {
+                addFile();
+            } else {
+                String file = tracked.get(random.nextInt(tracked.size()));
+                edit(file);
+                repo.add(file);
+            }
+        }
+        commit();
+    }
+
+    /**
+     * Resolves the conflicts of the merge just made, as the next commit, by keeping
+     * the side of the current branch. Left in, the conflict markers of a file would
+     * nest at its next conflict, doubling its size every time.
+     */
+    private void resolve() {
+        Commit merge = Commit.fromFile(repo.store, repo.HEADHash);
+        Map<String, String> ours = Commit.fromFile(repo.store, merge.parentHash).files();
+        for (Map.Entry<String, String> file : merge.files().entrySet()) {
+            String name = file.getKey();
+            String before = ours.get(name);
+            if (file.getValue().equals(before) || !isConflict(name)) {
+                continue;
+            }
+            if (before == null) {
+                repo.rm(name);
+            } else {
+                write(name, Blob.fromFile(repo.store, before).getContent());
+                repo.add(name);
+            }
+        }
+        commit();
+    }
+
+    /** Returns true if the working file FILE holds a merge conflict. */
+    private boolean isConflict(String file) {
+        byte[] contents = readContents(join(repo.store.root, file));
+        byte[] marker = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+        return contents.length >= marker.length
+                && Arrays.equals(contents, 0, marker.length, marker, 0, marker.length);
+    }
+
+    private void commit() {
+        if (repo.stage().isEmpty()) {
+            // an edit that happened to remove and add back the same file
+            return;
+        }
+        repo.commit("generated commit " + made, nextTimestamp());
+        made += 1;
+    }
+
+    private Instant nextTimestamp() {
+        return START.plusSeconds(60L * (made + 1));
+    }
+
+    /** Returns a branch other than the current one. */
+    private String otherBranch() {
+        int i = random.nextInt(branchNames.size() - 1);
+        String name = branchNames.get(i);
+        return name.equals(repo.currentBranch) ? branchNames.get(branchNames.size() - 1) : name;
+    }
+
+    /** Writes a new file in a random directory and stages it. */
+    private void addFile() {
+        boolean isBinary = random.nextDouble() < binary;
+        String file = directory(random.nextInt(dirs + 1)) + "f" + nextFile++ + (isBinary ? ".bin" : ".txt");
+        int length = size / 2 + random.nextInt(size + 1);
+        write(file, isBinary ? randomBytes(length) : randomText(length));
+        repo.add(file);
+        tracked.add(file);
+    }
+
+    /**
+     * Returns the path of directory I, "" for the top one. Directories 1 to 4 are at
+     * the top, every other one is inside directory I / 4, so they nest a few levels deep.
+     */
+    private static String directory(int i) {
+        if (i == 0) {
+            return "";
+        }
+        return (i > 4 ? directory(i / 4) : "") + "d" + i + "/";
+    }
+
+    /** Changes part of FILE: lines of text replaced or appended, or a range of bytes overwritten. */
+    private void edit(String file) {
+        byte[] contents = readContents(join(repo.store.root, file));
+        int at = contents.length == 0 ? 0 : random.nextInt(contents.length);
+        int length = Math.min(contents.length - at, 1 + random.nextInt(Math.max(1, size / 16)));
+        byte[] edit;
+        if (file.endsWith(".bin")) {
+            edit = randomBytes(length);
+        } else if (random.nextInt(4) == 0) {
+            // append
+            at = contents.length;
+            edit = randomText(1 + random.nextInt(Math.max(1, size / 16)));
+            length = 0;
+        } else {
+            edit = randomText(length);
+        }
+        byte[] result = new byte[contents.length - length + edit.length];
+        System.arraycopy(contents, 0, result, 0, at);
+        System.arraycopy(edit, 0, result, at, edit.length);
+        System.arraycopy(contents, at + length, result, at + edit.length, contents.length - at - length);
+        write(file, result);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i += 8) {
+            long r = random.nextLong();
+            for (int k = i; k < Math.min(length, i + 8); k += 1, r >>>= 8) {
+                result[k] = (byte) r;
+            }
+        }
+        return result;
+    }
+
+    /** Returns LENGTH bytes of lowercase words, spaces and newlines. */
+    private byte[] randomText(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i += 1) {
+            int r = random.nextInt(32);
+            result[i] = (byte) (r < 26 ? 'a' + r : r < 31 ? ' ' : '\n');
+        }
+        return result;
+    }
+
+    private void write(String file, byte[] contents) {
+        File target = join(repo.store.root, file);
+        target.getParentFile().mkdirs();
+        try {
+            Files.write(target.toPath(), contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/**
+ * Gitlet as a library: the commands of {@link Main}, for programs that run many of
+ * them in one JVM. Results are returned rather than printed, and every error the
+ * command line would print is thrown as a {@link GitletException} with that message,
+ * so nothing here exits or prints.
+ *
+ * A Gitlet is opened on the working directory of a repository, and the FILE
+ * arguments of its methods are relative to that directory. A JVM may open any number
+ * of repositories. Calls on one repository may come from several threads, they run
+ * one at a time; calls on different repositories don't wait for each other, and
+ * reading what {@link #log} and {@link #globalLog} return is such a call too. Each
+ * call reads HEAD and the staging area afresh and first checks the stat data of the
+ * files the caches come from, as the {@link Daemon} does, so it sees what other
+ * processes did in between, while the commit cache, commit graph and pack stay
+ * loaded as long as nothing changed them.
+ *
+ * The Gitlets open on a repository share its caches, which are released once the
+ * last of them is closed. A closed Gitlet can't be used any more.
+ *
+ *  @author AGX
+ */
+public final class Gitlet implements AutoCloseable {
+
+    /** The repositories open in this JVM by working directory, so each has one set of caches. */
+    private static final Map<File, Store> STORES = new HashMap<>();
+
+    private final Store store;
+
+    private volatile boolean closed;
+
+    private Gitlet(Store store) {
+        this.store = store;
+    }
+
+    /** Creates a repository in the working directory ROOT and returns it. */
+    public static Gitlet init(File root) {
+        Store store = acquire(root);
+        try {
+            synchronized (store.lock) {
+                if (store.exists()) {
+                    throw error("A Gitlet version-control system already exists in the current directory.");
+                }
+                new Repository(store).init();
+                store.watch();
+            }
+        } catch (RuntimeException excp) {
+            release(store);
+            throw excp;
+        }
+        return new Gitlet(store);
+    }
+
+    /** Returns the repository in the working directory ROOT. */
+    public static Gitlet open(File root) {
+        Store store = acquire(root);
+        if (!store.exists()) {
+            release(store);
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        return new Gitlet(store);
+    }
+
+    /** Releases the caches of the repository once no other Gitlet has it open. Closing twice does nothing. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        release(store);
+    }
+
+    /** Returns the Store of the working directory ROOT, the same for every open Gitlet on it. */
+    private static Store acquire(File root) {
+        File key;
+        try {
+            key = root.getCanonicalFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        synchronized (STORES) {
+            Store store = STORES.computeIfAbsent(key, Store::new);
+            store.opened += 1;
+            return store;
+        }
+    }
+
+    /** Undoes an acquire of STORE, dropping it and closing its pack after the last one. */
+    private static void release(Store store) {
+        synchronized (STORES) {
+            store.opened -= 1;
+            if (store.opened > 0) {
+                return;
+            }
+            STORES.remove(store.root);
+        }
+        // never taken while holding STORES, so no call waits on another repository
+        synchronized (store.lock) {
+            store.forget();
+        }
+    }
+
+    /** Returns the working directory, which FILE arguments are relative to. */
+    public File workingDirectory() {
+        return store.root;
+    }
+
+    public String currentBranch() {
+        return run(repo -> repo.currentBranch);
+    }
+
+    /** Returns the id of the commit HEAD points at. */
+    public String head() {
+        return run(repo -> repo.HEADHash);
+    }
+
+    /** Stages FILE for addition. */
+    public void add(String file) {
+        run(repo -> {
+            repo.add(file);
+            return null;
+        });
+    }
+
+    /** Unstages FILE, or stages it for removal and deletes it if it is tracked. */
+    public void rm(String file) {
+        run(repo -> {
+            repo.rm(file);
+            return null;
+        });
+    }
+
+    /** Commits what is staged with MESSAGE and returns the id of the new commit. */
+    public String commit(String message) {
+        if (message == null || message.isEmpty()) {
+            throw error("Please enter a commit message.");
+        }
+        return run(repo -> {
+            repo.commit(message);
+            return repo.HEADHash;
+        });
+    }
+
+    public Status status() {
+        return run(Repository::currentStatus);
+    }
+
+    /**
+     * Returns the history of the current branch, from HEAD back to the first commit,
+     * following first parents. Commits are read as the iteration gets to them, and
+     * one that is missing from the repository is a GitletException.
+     */
+    public Iterable<CommitInfo> log() {
+        String head = head();
+        return () -> new Iterator<CommitInfo>() {
+            private String next = head;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public CommitInfo next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit commit = locked(() -> Commit.fromFile(store, next));
+                if (commit == null) {
+                    throw error("Commit %s is missing from the repository.", next);
+                }
+                next = commit.parentHash;
+                return new CommitInfo(commit);
+            }
+        };
+    }
+
+    /** Returns every commit ever made, in id order. Commits are read when they are got. */
+    public List<CommitInfo> globalLog() {
+        List<String> hashes = locked(() -> Commit.allHashes(store));
+        return new AbstractList<CommitInfo>() {
+            @Override
+            public CommitInfo get(int index) {
+                Commit commit = locked(() -> Commit.fromFile(store, hashes.get(index)));
+                if (commit == null) {
+                    throw error("Commit %s is missing from the repository.", hashes.get(index));
+                }
+                return new CommitInfo(commit);
+            }
+
+            @Override
+            public int size() {
+                return hashes.size();
+            }
+        };
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, none if there are none. */
+    public List<String> find(String message) {
+        return locked(() -> MessageIndex.find(store, message));
+    }
+
+    /** Creates the branch NAME at HEAD. */
+    public void branch(String name) {
+        run(repo -> {
+            repo.branch(name);
+            return null;
+        });
+    }
+
+    /** Deletes the branch NAME, which must not be the current one. */
+    public void rmBranch(String name) {
+        run(repo -> {
+            repo.rm_branch(name);
+            return null;
+        });
+    }
+
+    /** Makes BRANCH the current branch, checking out its files. */
+    public void checkout(String branch) {
+        run(repo -> {
+            repo.checkout(branch, false);
+            return null;
+        });
+    }
+
+    /** Puts the version of FILE in HEAD in the working directory, without staging it. */
+    public void checkoutFile(String file) {
+        run(repo -> {
+            repo.checkout(file, repo.HEADHash);
+            return null;
+        });
+    }
+
+    /**
+     * Puts the version of FILE in the commit COMMITID, which may be abbreviated, in
+     * the working directory, without staging it.
+     */
+    public void checkoutFile(String commitId, String file) {
+        run(repo -> {
+            repo.checkout(file, commitId);
+            return null;
+        });
+    }
+
+    /** Checks out the commit COMMITID, which may be abbreviated, and moves the current branch to it. */
+    public void reset(String commitId) {
+        run(repo -> {
+            repo.reset(commitId);
+            return null;
+        });
+    }
+
+    /** Merges BRANCH into the current branch. */
+    public MergeResult merge(String branch) {
+        return run(repo -> repo.merge(branch, Instant.now()));
+    }
+
+    /** Folds all loose objects into the pack, see {@link Pack}. */
+    public void repack() {
+        run(repo -> {
+            repo.repack();
+            return null;
+        });
+    }
+
+    /** Runs COMMAND on the repository and saves what it changed. */
+    private <T> T run(Function<Repository, T> command) {
+        return locked(() -> {
+            Repository repo = Repository.fromFile(store);
+            if (repo == null) {
+                throw error("Not in an initialized Gitlet directory.");
+            }
+            T result = command.apply(repo);
+            repo.save();
+            return result;
+        });
+    }
+
+    /**
+     * Runs ACTION while holding the lock of the repository, after dropping the caches
+     * if another process changed what they came from.
+     */
+    private <T> T locked(Supplier<T> action) {
+        if (closed) {
+            throw new IllegalStateException("Gitlet is closed");
+        }
+        synchronized (store.lock) {
+            store.forgetIfChanged();
+            try {
+                return action.get();
+            } finally {
+                store.watch();
+            }
+        }
+    }
+}
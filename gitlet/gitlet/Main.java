@@ -1,39 +1,72 @@
 package gitlet;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.error;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author AGX
  */
 
 public class Main {
 
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
+    /** Usage: java gitlet.Main [--trace] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  With --trace, where the command spent its time is reported on
+     *  stderr as JSON once it is done, see {@link Trace}.
      */
     public static void main(String[] args) {
+        try {
+            Store store = new Store(new File(System.getProperty("user.dir")));
+            run(args, store, () -> Repository.fromFile(store));
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Runs the command ARGS on the repository of STORE, as given by REPOSITORY, which
+     * is null outside of an initialized Gitlet directory. Errors are thrown as a
+     * GitletException with the message to print, if any.
+     */
+    static void run(String[] args, Store store, Supplier<Repository> repository) {
+        if (args.length > 0 && args[0].equals("--trace")) {
+            String[] command = Arrays.copyOfRange(args, 1, args.length);
+            long start = System.nanoTime();
+            Trace.begin();
+            try {
+                run(command, store, repository);
+            } finally {
+                System.err.println(Trace.end(command, System.nanoTime() - start));
+            }
+            return;
+        }
         // args is empty
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
         String firstArg = args[0];
         Repository Repo;
         switch (firstArg) {
             case "init":
 
-                if (Repository.doesGitletDirExists()) {
-                    System.out.println("A Gitlet version-control system already exists "
+                if (store.exists()) {
+                    throw error("A Gitlet version-control system already exists "
                             + "in the current directory.");
-                    System.exit(0);
                 }
-                Repository newRepo = new Repository();
+                Repository newRepo = new Repository(store);
                 newRepo.init();
                 break;
             case "add":
                 // the `add [filename]` command
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (args.length < 2) {
-                    System.out.println("Please enter a File name");
-                    System.exit(0);
+                    throw error("Please enter a File name");
                 }
 
                 if (Repo == null) {
@@ -47,10 +80,9 @@ public class Main {
             case "commit":
                 // the `commit -m [message]` command
                 if (args.length < 2 || args[1].isEmpty()) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -62,9 +94,9 @@ public class Main {
             case "rm":
                 // java gitlet.Main rm [file name]
                 if (args.length < 2) {
-                    System.exit(0);
+                    throw new GitletException();
                 }
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -75,7 +107,7 @@ public class Main {
 
             case "log":
                 // java gitlet.Main log
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -84,23 +116,22 @@ public class Main {
                 break;
 
             case "global-log":
-                // java gitlet.Main global-log
-                Repo = Repository.fromFile();
+                // java gitlet.Main global-log [--date-order]
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
                 }
-                Repo.global_log();
+                Repo.global_log(args.length > 1 && args[1].equals("--date-order"));
                 break;
 
             case "find":
                 // java gitlet.Main find [commit message]
                 if (args.length < 2) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
 
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -110,7 +141,7 @@ public class Main {
 
             case "status":
                 // java gitlet.Main status
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -119,7 +150,7 @@ public class Main {
                 break;
 
             case "checkout":
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -150,7 +181,7 @@ public class Main {
                 if (args.length < 2) {
                     return;
                 }
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -160,7 +191,7 @@ public class Main {
                 break;
 
             case "reset":
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -170,7 +201,7 @@ public class Main {
                 break;
 
             case "rm-branch":
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -180,7 +211,7 @@ public class Main {
                 break;
 
             case "merge":
-                Repo = Repository.fromFile();
+                Repo = repository.get();
                 if (Repo == null) {
                     System.out.println("Not in an initialized Gitlet directory.");
                     return;
@@ -189,9 +220,42 @@ public class Main {
                 Repo.save();
                 break;
 
+            case "repack":
+                // java gitlet.Main repack
+                Repo = repository.get();
+                if (Repo == null) {
+                    System.out.println("Not in an initialized Gitlet directory.");
+                    return;
+                }
+                Repo.repack();
+                break;
+
+            case "pack-refs":
+                // java gitlet.Main pack-refs
+                Repo = repository.get();
+                if (Repo == null) {
+                    System.out.println("Not in an initialized Gitlet directory.");
+                    return;
+                }
+                Repo.packRefs();
+                break;
+
+            case "daemon":
+                // java gitlet.Main daemon [--stdio]
+                Repo = repository.get();
+                if (Repo == null) {
+                    System.out.println("Not in an initialized Gitlet directory.");
+                    return;
+                }
+                if (args.length > 1 && args[1].equals("--stdio")) {
+                    new Daemon(store).serve();
+                } else {
+                    new Daemon(store).listen();
+                }
+                break;
+
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
         }
     }
 }
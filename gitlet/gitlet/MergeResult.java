@@ -0,0 +1,46 @@
+package gitlet;
+
+/**
+ * What merging a branch into the current one did, and the commit the current
+ * branch ended up on.
+ *
+ *  @author AGX
+ */
+public final class MergeResult {
+
+    /** The ways a merge can go. */
+    public enum Outcome {
+        /** The given branch is already part of the current one, nothing changed. */
+        ANCESTOR("Given branch is an ancestor of the current branch."),
+        /** The current branch was part of the given one and now points at the same commit. */
+        FAST_FORWARD("Current branch fast-forwarded."),
+        /** A merge commit was made. */
+        MERGED(null),
+        /** A merge commit was made, with conflict markers in some files. */
+        CONFLICT("Encountered a merge conflict.");
+
+        /** What the merge command prints, if anything. */
+        final String message;
+
+        Outcome(String message) {
+            this.message = message;
+        }
+    }
+
+    private final Outcome outcome;
+    private final String commit;
+
+    MergeResult(Outcome outcome, String commit) {
+        this.outcome = outcome;
+        this.commit = commit;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /** Returns the id of the commit the current branch is on after the merge. */
+    public String getCommit() {
+        return commit;
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * An inverted index from commit messages to the commits that have them, so `find`
+ * never has to read a commit. A message stands for the SHA-1 of its UTF-8 bytes:
+ *
+ * message-index     : a {@link SortedIndex} of [message hash (20 bytes), commit id
+ *                     (20 bytes)], so the commits of a message are next to each other.
+ * message-index.new : its journal, the entries of commits created since it was last
+ *                     written.
+ *
+ * Both files are rebuilt from the commits if the index goes missing.
+ *
+ *  @author AGX
+ */
+class MessageIndex {
+
+    /** The sorted index file, in the .gitlet directory. */
+    static final String INDEX_FILE = "message-index";
+
+    /** Where older versions kept the index, one file of commit ids per message. */
+    static final String LEGACY_DIR = "messages";
+
+    private static final int MAGIC = 0x474c4d49; // "GLMI"
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = 2 * HASH_BYTES;
+
+    private MessageIndex() {
+    }
+
+    /** Returns the ids of the commits of STORE whose message is exactly MESSAGE, in sorted order. */
+    static List<String> find(Store store, String message) {
+        SortedIndex index = index(store);
+        if (!index.exists()) {
+            rebuild(store);
+        }
+        TreeSet<String> result = new TreeSet<>();
+        for (byte[] entry : index.find(toBytes(sha1(message)))) {
+            result.add(toHex(entry, HASH_BYTES, HASH_BYTES));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Records that the new commit HASH of STORE has MESSAGE. */
+    static void add(Store store, String hash, String message) {
+        SortedIndex index = index(store);
+        if (!index.exists()) {
+            // HASH is already saved, so rebuilding picks it up
+            rebuild(store);
+            return;
+        }
+        index.add(entry(hash, message).array());
+    }
+
+    /** Rewrites the index from every commit of STORE and drops the journal. */
+    static void rebuild(Store store) {
+        List<String> hashes = Commit.allHashes(store);
+        ByteBuffer entries = ByteBuffer.allocate(hashes.size() * ENTRY_SIZE);
+        for (String hash : hashes) {
+            entries.put(entry(hash, Commit.fromFile(store, hash).getMessage()));
+        }
+        entries.flip();
+        index(store).write(entries);
+        File legacyDir = store.file(LEGACY_DIR);
+        List<String> legacy = plainFilenamesIn(legacyDir);
+        if (legacy != null) {
+            for (String name : legacy) {
+                join(legacyDir, name).delete();
+            }
+            legacyDir.delete();
+        }
+    }
+
+    private static SortedIndex index(Store store) {
+        return new SortedIndex(store.file(INDEX_FILE), MAGIC, ENTRY_SIZE);
+    }
+
+    /** The entry of the commit HASH with MESSAGE. */
+    private static ByteBuffer entry(String hash, String message) {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.put(toBytes(sha1(message)));
+        entry.put(toBytes(hash));
+        entry.flip();
+        return entry;
+    }
+}
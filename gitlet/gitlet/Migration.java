@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Upgrades a repository saved by an older version to the current formats. The oldest
+ * versions Java-serialized the repository, commits and blobs and copied staged files to
+ * .gitlet/.index, later ones kept HEAD and the branches in a binary REPO file:
+ *
+ * REPO : MAGIC, VERSION, HEAD hash (20 bytes), current branch (UTF), number of
+ *        branches (int), then [name (UTF), hash of its last commit (20 bytes)] for each.
+ *
+ * The upgrade
+ *  - turns serialized blobs into the raw bytes of the file (see {@link Blob}),
+ *  - gives serialized commits their binary encoding (see {@link Commit#encode}),
+ *  - moves the staged files to the staging area (see {@link StagingArea}),
+ *  - moves HEAD and the branches to ref files (see {@link Refs}) and deletes REPO.
+ * It runs once, the first time such a repository is opened.
+ *
+ *  @author AGX
+ */
+class Migration {
+
+    /** Where older versions kept the files staged for addition, in the .gitlet directory. */
+    static final String LEGACY_INDEX_DIR = ".index";
+
+    private static final int REPO_MAGIC = 0x474c5250; // "GLRP"
+    private static final int REPO_VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+
+    private Migration() {
+    }
+
+    /** The blob class of older versions, which held the contents as a String. */
+    private static class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = 7488839518191974239L;
+        private String content;
+        private String hash;
+    }
+
+    /** Returns the repository saved in the REPO file of STORE, in either of its old formats. */
+    static Repository readRepoFile(Store store) {
+        byte[] contents = readContents(store.file(Repository.REPO_DIR, Repository.REPO));
+        if (isSerialized(contents)) {
+            Repository repo = deserialize(contents, Repository.class);
+            repo.store = store;
+            return repo;
+        }
+        Repository repo = new Repository(store);
+        repo.branches = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != REPO_MAGIC || in.readInt() != REPO_VERSION) {
+                throw error("The repository file is corrupt.");
+            }
+            byte[] hash = new byte[HASH_BYTES];
+            in.readFully(hash);
+            repo.HEADHash = toHex(hash);
+            repo.currentBranch = in.readUTF();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                in.readFully(hash);
+                repo.branches.put(name, toHex(hash));
+            }
+        } catch (IOException excp) {
+            throw error("The repository file is corrupt.");
+        }
+        return repo;
+    }
+
+    /** Upgrades the repository REPO was read from, saves it and returns REPO. */
+    static Repository upgrade(Repository repo) {
+        Store store = repo.store;
+        upgradeBlobs(store);
+        upgradeCommits(store);
+        StagingArea stage = repo.stage();
+        File legacyIndexDir = store.file(LEGACY_INDEX_DIR);
+        List<String> staged = plainFilenamesIn(legacyIndexDir);
+        if (staged != null) {
+            for (String fileName : staged) {
+                File file = join(legacyIndexDir, fileName);
+                stage.add(fileName, new Blob(store, file).getHash());
+                file.delete();
+            }
+            legacyIndexDir.delete();
+        }
+        if (repo.FilesToRemove != null) {
+            repo.FilesToRemove.forEach(stage::remove);
+            repo.FilesToRemove = null;
+        }
+        for (Map.Entry<String, String> branch : repo.branches.entrySet()) {
+            store.refs.update(branch.getKey(), branch.getValue());
+        }
+        repo.branches = null;
+        // HEAD last, its presence marks the repository as upgraded
+        store.refs.setCurrentBranch(repo.currentBranch);
+        repo.save();
+        store.file(Repository.REPO_DIR, Repository.REPO).delete();
+        store.file(Repository.REPO_DIR).delete();
+        return repo;
+    }
+
+    /** Rewrites every serialized loose blob of STORE as the raw bytes of its contents. */
+    private static void upgradeBlobs(Store store) {
+        List<String> names = plainFilenamesIn(store.blobDir);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = join(store.blobDir, name);
+            byte[] contents = readContents(file);
+            if (!isSerialized(contents)) {
+                continue;
+            }
+            LegacyBlob blob = readLegacyBlob(contents);
+            // a tracked file can be serialized data itself, only convert real old blobs
+            if (blob != null && name.equals(blob.hash)) {
+                replace(file, blob.content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /** Rewrites every serialized loose commit of STORE in its binary encoding. */
+    private static void upgradeCommits(Store store) {
+        List<String> names = plainFilenamesIn(store.commitDir);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = join(store.commitDir, name);
+            byte[] contents = readContents(file);
+            if (isSerialized(contents)) {
+                Commit commit = Commit.decode(contents);
+                // encoding writes the trees of a commit made before trees
+                commit.store = store;
+                replace(file, commit.encode());
+            }
+        }
+    }
+
+    /** Returns true if CONTENTS start with the magic number of Java serialization. */
+    private static boolean isSerialized(byte[] contents) {
+        return contents.length >= 2 && (contents[0] & 0xff) == 0xac && (contents[1] & 0xff) == 0xed;
+    }
+
+    /** Returns the old blob serialized in CONTENTS, or null if that isn't one. */
+    private static LegacyBlob readLegacyBlob(byte[] contents) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(contents)) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                // gitlet.Blob isn't serializable anymore, read its fields into a LegacyBlob
+                ObjectStreamClass desc = super.readClassDescriptor();
+                if (desc.getName().equals("gitlet.Blob")) {
+                    return ObjectStreamClass.lookup(LegacyBlob.class);
+                }
+                return desc;
+            }
+        }) {
+            Object blob = in.readObject();
+            return blob instanceof LegacyBlob ? (LegacyBlob) blob : null;
+        } catch (IOException | ClassNotFoundException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    /** Atomically replaces the contents of FILE with CONTENTS. */
+    private static void replace(File file, byte[] contents) {
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * The packed object store.
+ * Loose commits, trees, blobs, deltas and chunk lists each live in their own file in the
+ * commits, trees, objects, deltas and chunked directories, `gitlet repack` folds them
+ * into one append-only data file (objects.pack) holding
+ * deflated objects (encoded commits, trees, deltas and chunk lists, raw blob contents), plus a sorted index (objects.idx) mapping each object hash to
+ * its offset in the data file so a lookup is a binary search. A blob stored as a delta
+ * (see {@link Delta}) or as chunks (see {@link Chunked}) keeps that form in the pack, under
+ * the hash of its whole contents.
+ *
+ * objects.pack : MAGIC, VERSION, then records of
+ *                [type (byte), inflated length (long), deflated length (long), deflated bytes]
+ *                Objects that deflate doesn't shrink (media files...) are stored as they are,
+ *                with STORED set in their type byte, so they can be copied straight out of
+ *                the pack with FileChannel.transferTo.
+ * objects.idx  : MAGIC, VERSION, count (int), then count entries sorted by hash of
+ *                [hash (20 bytes), type (int), offset (long)]
+ *
+ *  @author AGX
+ */
+class Pack {
+
+    /** The pack directory, in the .gitlet directory. */
+    static final String PACK_DIR = "packs";
+
+    /** The append-only data file, in PACK_DIR. */
+    static final String PACK_FILE = "objects.pack";
+
+    /** The sorted index of PACK_FILE, in PACK_DIR. */
+    static final String INDEX_FILE = "objects.idx";
+
+    /** Object types stored in a pack. */
+    static final int COMMIT = 1;
+    static final int BLOB = 2;
+    static final int TREE = 3;
+    static final int DELTA = 4;
+    static final int CHUNKED = 5;
+
+    /** Flag in the type byte of a record whose contents aren't deflated. */
+    private static final int STORED = 0x80;
+
+    private static final int PACK_MAGIC = 0x474c504b; // "GLPK"
+    private static final int INDEX_MAGIC = 0x474c4958; // "GLIX"
+    private static final int VERSION = 1;
+
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = HASH_BYTES + 4 + 8;
+    private static final int INDEX_HEADER = 12;
+    private static final int RECORD_HEADER = 1 + 8 + 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The data file, only read with positional reads so it can be shared. */
+    private final FileChannel data;
+    private final MappedByteBuffer index;
+    private final int count;
+
+    private Pack(FileChannel data, MappedByteBuffer index) {
+        this.data = data;
+        this.index = index;
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt pack index");
+        }
+        this.count = index.getInt(8);
+    }
+
+    /**
+     * Returns the pack of the repository STORE, or null if nothing has been packed yet.
+     * It is opened once and kept in STORE.
+     */
+    static Pack open(Store store) {
+        synchronized (store) {
+            if (store.pack != null) {
+                return store.pack;
+            }
+            File indexFile = store.file(PACK_DIR, INDEX_FILE);
+            File packFile = store.file(PACK_DIR, PACK_FILE);
+            if (!indexFile.isFile() || !packFile.isFile()) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+                MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                store.pack = new Pack(FileChannel.open(packFile.toPath()), index);
+                return store.pack;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns true if the object HASH is in the pack. */
+    boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /** Returns true if the object HASH of the given TYPE is in the pack. */
+    boolean contains(String hash, int type) {
+        int i = find(hash);
+        return i >= 0 && typeAt(i) == type;
+    }
+
+    /** Returns the inflated length of object HASH of the given TYPE, or -1 if it isn't packed. */
+    long length(String hash, int type) {
+        int i = find(hash);
+        if (i < 0 || typeAt(i) != type) {
+            return -1;
+        }
+        return readAt(offsetAt(i), RECORD_HEADER).getLong(1);
+    }
+
+    /** Returns the inflated contents of object HASH of the given TYPE, or null if it isn't packed. */
+    byte[] read(String hash, int type) {
+        int i = find(hash);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        long offset = offsetAt(i);
+        ByteBuffer header = readAt(offset, RECORD_HEADER);
+        long inflatedLength = header.getLong(1);
+        ByteBuffer deflated = readAt(offset + RECORD_HEADER, (int) header.getLong(9));
+        if ((header.get(0) & STORED) != 0) {
+            return deflated.array();
+        }
+        return inflate(deflated.array(), (int) inflatedLength);
+    }
+
+    /**
+     * Returns a stream over the inflated contents of object HASH of the given TYPE,
+     * or null if it isn't packed. The object is inflated as it is read.
+     */
+    InputStream open(String hash, int type) {
+        int i = find(hash);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        long offset = offsetAt(i);
+        ByteBuffer header = readAt(offset, RECORD_HEADER);
+        InputStream region = new RegionInputStream(data, offset + RECORD_HEADER, header.getLong(9));
+        if ((header.get(0) & STORED) != 0) {
+            return region;
+        }
+        return new InflaterInputStream(region, new Inflater(), BUFFER_SIZE);
+    }
+
+    /** Returns true if object HASH of the given TYPE is packed as it is, without deflating. */
+    boolean isStored(String hash, int type) {
+        int i = find(hash);
+        return i >= 0 && typeAt(i) == type && (readAt(offsetAt(i), 1).get(0) & STORED) != 0;
+    }
+
+    /**
+     * Copies the contents of the stored object HASH to OUT with FileChannel.transferTo,
+     * so the bytes never go through the heap. See {@link #isStored(String, int)}.
+     */
+    void transferTo(String hash, FileChannel out) throws IOException {
+        int i = find(hash);
+        long offset = offsetAt(i);
+        ByteBuffer header = readAt(offset, RECORD_HEADER);
+        if ((header.get(0) & STORED) == 0) {
+            throw new IllegalArgumentException("object is deflated: " + hash);
+        }
+        long start = offset + RECORD_HEADER;
+        long length = header.getLong(9);
+        for (long done = 0; done < length; ) {
+            done += data.transferTo(start + done, length - done, out);
+        }
+    }
+
+    private ByteBuffer readAt(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (data.read(buffer, position + buffer.position()) < 0) {
+                    throw new IllegalArgumentException("truncated pack");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Returns the hashes of all packed objects of the given TYPE, in sorted order. */
+    List<String> hashes(int type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (typeAt(i) == type) {
+                result.add(hashAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Binary search of the index, returns the entry number of HASH or -1. */
+    private int find(String hash) {
+        if (hash == null || hash.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toBytes(hash);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareAt(int i, byte[] key) {
+        int base = INDEX_HEADER + i * ENTRY_SIZE;
+        for (int k = 0; k < HASH_BYTES; k += 1) {
+            int cmp = Integer.compare(index.get(base + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String hashAt(int i) {
+        byte[] hash = new byte[HASH_BYTES];
+        index.get(INDEX_HEADER + i * ENTRY_SIZE, hash);
+        return toHex(hash);
+    }
+
+    private int typeAt(int i) {
+        return index.getInt(INDEX_HEADER + i * ENTRY_SIZE + HASH_BYTES);
+    }
+
+    private long offsetAt(int i) {
+        return index.getLong(INDEX_HEADER + i * ENTRY_SIZE + HASH_BYTES + 4);
+    }
+
+    /**
+     * Folds every loose commit, tree, blob, delta and chunk list of STORE into its pack.
+     * The new records are appended to PACK_FILE and flushed before the index is
+     * replaced, and the loose files are deleted only once the new index is in place,
+     * so an interrupted repack never loses an object.
+     */
+    static void repack(Store store) {
+        File[] dirs = {store.commitDir, store.file(Tree.TREE_DIR), store.blobDir, store.file(Delta.DELTA_DIR),
+            store.file(Chunked.CHUNKED_DIR)};
+        int[] types = {COMMIT, TREE, BLOB, DELTA, CHUNKED};
+        List<List<String>> loose = new ArrayList<>();
+        boolean any = false;
+        for (File dir : dirs) {
+            List<String> hashes = plainFilenamesIn(dir);
+            loose.add(hashes == null ? new ArrayList<>() : hashes);
+            any = any || (hashes != null && !hashes.isEmpty());
+        }
+        if (!any) {
+            return;
+        }
+        store.file(PACK_DIR).mkdir();
+
+        // (hash, {type, offset}) of the objects already packed plus the ones we append
+        Map<String, long[]> entries = new TreeMap<>();
+        Pack old = open(store);
+        if (old != null) {
+            for (int i = 0; i < old.count; i += 1) {
+                entries.put(old.hashAt(i), new long[] {old.typeAt(i), old.offsetAt(i)});
+            }
+        }
+        close(store);
+
+        try (RandomAccessFile out = new RandomAccessFile(store.file(PACK_DIR, PACK_FILE), "rw")) {
+            if (out.length() == 0) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.seek(out.length());
+            for (int i = 0; i < dirs.length; i += 1) {
+                appendAll(out, entries, dirs[i], loose.get(i), types[i]);
+            }
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        writeIndex(store, entries);
+
+        for (int i = 0; i < dirs.length; i += 1) {
+            for (String hash : loose.get(i)) {
+                if (entries.containsKey(hash)) {
+                    join(dirs[i], hash).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the loose objects HASHES of DIR to OUT.
+     * Each object is streamed through the deflater, and the lengths in its record
+     * header are filled in afterwards, so objects of any size can be packed.
+     */
+    private static void appendAll(RandomAccessFile out, Map<String, long[]> entries,
+                                  File dir, List<String> hashes, int type) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] deflated = new byte[BUFFER_SIZE];
+        Deflater deflater = new Deflater();
+        try {
+            for (String hash : hashes) {
+                if (hash.length() != UID_LENGTH || entries.containsKey(hash)) {
+                    continue;
+                }
+                long offset = out.getFilePointer();
+                out.writeByte(type);
+                out.writeLong(0);
+                out.writeLong(0);
+                long length = 0;
+                deflater.reset();
+                try (InputStream in = new FileInputStream(join(dir, hash))) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        length += n;
+                        deflater.setInput(buffer, 0, n);
+                        while (!deflater.needsInput()) {
+                            out.write(deflated, 0, deflater.deflate(deflated));
+                        }
+                    }
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(deflated, 0, deflater.deflate(deflated));
+                }
+                long end = out.getFilePointer();
+                if (end - offset - RECORD_HEADER >= length) {
+                    // deflating didn't help, store it as it is
+                    end = store(out, offset, join(dir, hash), type);
+                }
+                out.seek(offset + 1);
+                out.writeLong(length);
+                out.writeLong(end - offset - RECORD_HEADER);
+                out.seek(end);
+                entries.put(hash, new long[] {type, offset});
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Replaces the record at OFFSET, the last one in OUT, with the contents of SOURCE as
+     * they are, and returns the new end of OUT. The lengths are left for the caller.
+     */
+    private static long store(RandomAccessFile out, long offset, File source, int type) throws IOException {
+        out.setLength(offset + RECORD_HEADER);
+        out.seek(offset);
+        out.writeByte(type | STORED);
+        long end = offset + RECORD_HEADER;
+        try (FileChannel in = FileChannel.open(source.toPath())) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += out.getChannel().transferFrom(in, end + done, size - done);
+            }
+            end += size;
+        }
+        out.seek(end);
+        return end;
+    }
+
+    /** Writes the index for ENTRIES to a temporary file and renames it over INDEX_FILE. */
+    private static void writeIndex(Store store, Map<String, long[]> entries) {
+        File tmp = store.file(PACK_DIR, INDEX_FILE + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INDEX_HEADER + entries.size() * ENTRY_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                out.write(toBytes(entry.getKey()));
+                out.writeInt((int) entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(tmp, bytes.toByteArray());
+        try {
+            Files.move(tmp.toPath(), store.file(PACK_DIR, INDEX_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the pack opened from STORE, if any. */
+    static void close(Store store) {
+        synchronized (store) {
+            if (store.pack == null) {
+                return;
+            }
+            try {
+                store.pack.data.close();
+            } catch (IOException excp) {
+                // nothing to do, we only read from it
+            }
+            store.pack = null;
+        }
+    }
+
+    private static byte[] inflate(byte[] deflated, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] result = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                n += inflater.inflate(result, n, length - n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt pack: " + excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    /** An InputStream over LENGTH bytes of CHANNEL starting at POSITION, using positional reads. */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return -1;
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * The branches and HEAD, each in its own small file as in git, so updating one
+ * branch only rewrites that branch no matter how many there are.
+ *
+ * HEAD          : "ref: refs/heads/" name of the current branch "\n"
+ * refs/heads/B  : hash of the last commit of branch B "\n"
+ * packed-refs   : lines of hash " refs/heads/" name, sorted by name. Written by
+ *                 `pack-refs`, it holds the branches that have no file of their own
+ *                 under refs/heads; such a file always wins over packed-refs.
+ *
+ * Every file is written to a ".lock" file next to it first and then renamed over it.
+ *
+ * A branch name is a path under refs/heads, so it is checked before any file is named
+ * after it: its "/"-separated parts must not be empty, "." or "..", nor end in ".lock",
+ * and a branch can't also be the directory of another one, as "a" and "a/b" would be.
+ *
+ *  @author AGX
+ */
+class Refs {
+
+    /** The file naming the current branch. */
+    final File headFile;
+
+    /** The directory of the branch files. */
+    final File headsDir;
+
+    /** The branches packed together by pack-refs. */
+    final File packedRefs;
+
+    private static final String HEAD_PREFIX = "ref: refs/heads/";
+    private static final String PACKED_PREFIX = " refs/heads/";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** The contents of packedRefs (name of the branch, hash), read on first use. */
+    private Map<String, String> packed;
+
+    /** The refs of the repository whose .gitlet directory is DIR. */
+    Refs(File dir) {
+        headFile = join(dir, "HEAD");
+        headsDir = join(dir, "refs", "heads");
+        packedRefs = join(dir, "packed-refs");
+    }
+
+    /** Returns the name of the current branch. */
+    String currentBranch() {
+        String head = readContentsAsString(headFile).trim();
+        if (!head.startsWith(HEAD_PREFIX)) {
+            throw error("HEAD is corrupt.");
+        }
+        return head.substring(HEAD_PREFIX.length());
+    }
+
+    /** Makes BRANCH the current branch. */
+    void setCurrentBranch(String branch) {
+        write(headFile, HEAD_PREFIX + branch + "\n");
+    }
+
+    /** Returns the hash of the last commit of BRANCH, or null if there is no such branch. */
+    String get(String branch) {
+        File file = file(branch);
+        if (file.isFile()) {
+            return readContentsAsString(file).trim();
+        }
+        return packed().get(branch);
+    }
+
+    boolean exists(String branch) {
+        return get(branch) != null;
+    }
+
+    /** Points BRANCH, which may be new, at the commit HASH. */
+    void update(String branch, String hash) {
+        File file = file(branch);
+        if (!file.isFile() && !packed().containsKey(branch)) {
+            checkNew(branch);
+        }
+        file.getParentFile().mkdirs();
+        write(file, hash + "\n");
+    }
+
+    /** Deletes BRANCH. Only rewrites packed-refs if the branch is packed. */
+    void delete(String branch) {
+        file(branch).delete();
+        if (packed().containsKey(branch)) {
+            Map<String, String> rest = new TreeMap<>(packed());
+            rest.remove(branch);
+            writePacked(rest);
+        }
+    }
+
+    /** Returns the names of all branches, sorted. */
+    List<String> branches() {
+        TreeSet<String> names = new TreeSet<>(packed().keySet());
+        names.addAll(loose().keySet());
+        return new ArrayList<>(names);
+    }
+
+    /** Moves every branch into packed-refs and deletes their own files. */
+    void pack() {
+        Map<String, String> loose = loose();
+        Map<String, String> all = new TreeMap<>(packed());
+        all.putAll(loose);
+        writePacked(all);
+        for (String branch : loose.keySet()) {
+            File file = join(headsDir, branch);
+            file.delete();
+            // drop the directories of branches such as a/b once empty
+            for (File dir = file.getParentFile(); !dir.equals(headsDir) && dir.delete(); ) {
+                dir = dir.getParentFile();
+            }
+        }
+    }
+
+    /** Returns the file of BRANCH under headsDir, once its name is known to be valid. */
+    private File file(String branch) {
+        if (branch.isEmpty() || branch.indexOf('\\') >= 0) {
+            throw error("Not a valid branch name.");
+        }
+        for (String part : branch.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.endsWith(LOCK_SUFFIX)) {
+                throw error("Not a valid branch name.");
+            }
+        }
+        return join(headsDir, branch);
+    }
+
+    /** Fails if the new BRANCH would be the directory of an existing branch, or the other way around. */
+    private void checkNew(String branch) {
+        for (String other : branches()) {
+            if (other.startsWith(branch + "/") || branch.startsWith(other + "/")) {
+                throw error("A branch name cannot be the directory of another branch.");
+            }
+        }
+    }
+
+    /** Returns the branches that have their own file (name of the branch, hash). */
+    private Map<String, String> loose() {
+        Map<String, String> result = new TreeMap<>();
+        if (!headsDir.isDirectory()) {
+            return result;
+        }
+        Path root = headsDir.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile)
+                    .filter(path -> !path.toString().endsWith(LOCK_SUFFIX))
+                    .forEach(path -> result.put(root.relativize(path).toString().replace(File.separatorChar, '/'),
+                            readContentsAsString(path.toFile()).trim()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Drops the packed branches read by this process, so they are read again on next use. */
+    synchronized void forget() {
+        packed = null;
+    }
+
+    private synchronized Map<String, String> packed() {
+        if (packed != null) {
+            return packed;
+        }
+        packed = new TreeMap<>();
+        if (!packedRefs.isFile()) {
+            return packed;
+        }
+        for (String line : readContentsAsString(packedRefs).split("\n")) {
+            int space = line.indexOf(PACKED_PREFIX);
+            if (space > 0) {
+                packed.put(line.substring(space + PACKED_PREFIX.length()), line.substring(0, space));
+            }
+        }
+        return packed;
+    }
+
+    private synchronized void writePacked(Map<String, String> refs) {
+        StringBuilder contents = new StringBuilder(refs.size() * 64);
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            contents.append(ref.getValue()).append(PACKED_PREFIX).append(ref.getKey()).append('\n');
+        }
+        write(packedRefs, contents.toString());
+        packed = refs;
+    }
+
+    /** Atomically replaces the contents of FILE with CONTENTS. */
+    private static void write(File file, String contents) {
+        File lock = new File(file.getPath() + LOCK_SUFFIX);
+        writeContents(lock, contents);
+        try {
+            Files.move(lock.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -13,9 +25,15 @@ import static gitlet.Utils.*;
  * Represents a gitlet repository.
  *  does at a high level.
  *
+ *  HEAD and the branches live in their own small files, see {@link Refs}. Older
+ *  versions kept them, with the staging area, in the single REPO file; such a
+ *  repository is upgraded by {@link Migration} when it is first opened.
+ *
  *  @author AGX
  */
 public class Repository implements Serializable {
+    /** Serialization id of the repositories older versions saved, so they can still be read. */
+    private static final long serialVersionUID = -7606347408577520517L;
     /**
      *
      * List all instance variables of the Repository class here with a useful
@@ -23,220 +41,214 @@ public class Repository implements Serializable {
      * variable is used. We've provided two examples for you.
      */
 
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
-    /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
-
-    /** The Commit directory. */
-    public static final File COMMIT_DIR = join(GITLET_DIR, "commits");
-
-    /** The .index directory. "The Staging Area" */
-    public static final File INDEX_DIR = join(GITLET_DIR, ".index");
+    /** the Repo directory in the .gitlet directory, where older versions kept the REPO file */
+    static final String REPO_DIR = "REPO";
 
-    /** the blob directory */
-    public static final File BLOB_DIR = join(GITLET_DIR, "objects");
+    /** the Repo File of older versions in REPO_DIR, see {@link Migration} */
+    static final String REPO = "REPO";
 
-
-    /** the Repo directory */
-    public static final File REPO_DIR = join(GITLET_DIR, "REPO");
-
-/** the Repo File directory */
-    public static final File REPO = join(REPO_DIR, "REPO");
+    /** Where this repository lives, with what this process keeps loaded from it. */
+    transient Store store;
 
     /** the pointer to the master */
     Commit master;
 
     /** the pointer to the current commit we're at "Head" */
-    String HEADHash; // the hash of the HEAD Commit
+    String HEADHash; // the hash of the HEAD Commit, read from the current branch's ref
 
 
-    /** the pointer to the Current Branch we're in */
+    /** the pointer to the Current Branch we're in, read from the HEAD file */
     String currentBranch;
 
-    /** */
-    Map<String,String> branches = new HashMap<>(); // (name of the branch, Hash of the last Commit of the Branch);
+    /** Branches of repositories saved by older versions, only ever read by {@link Migration}. */
+    Map<String,String> branches; // (name of the branch, Hash of the last Commit of the Branch);
+
+    /** The staging area, loaded from its own file on first use, see {@link StagingArea} */
+    transient StagingArea stage;
 
-    // staged removed files
-    Set<String> FilesToRemove = new HashSet<>();
+    /** Files staged for removal by older versions, only ever read by {@link Migration}. */
+    Set<String> FilesToRemove;
 
 
-    static boolean doesGitletDirExists() {
-        return GITLET_DIR.exists() && GITLET_DIR.isDirectory();
+    /** The repository of STORE, which init creates if it doesn't exist yet. */
+    Repository(Store store) {
+        this.store = store;
     }
 
     public void init() {
         // create .gitlet subdirectory
-        GITLET_DIR.mkdir();
-        assert GITLET_DIR.exists() && GITLET_DIR.isDirectory();
-        Commit HEAD = new Commit("initial commit", Instant.EPOCH);
-        HEADHash = HEAD.getHash();
-        branches.put("master", HEAD.getHash());
+        store.dir.mkdir();
+        assert store.dir.exists() && store.dir.isDirectory();
+        Commit HEAD = new Commit(store, "initial commit", Instant.EPOCH);
         currentBranch = "master";
+        moveHead(HEAD.getHash());
+        store.refs.setCurrentBranch(currentBranch);
         // Setup Persistence
-        COMMIT_DIR.mkdir();
-        assert COMMIT_DIR.exists() && COMMIT_DIR.isDirectory();
-        BLOB_DIR.mkdir();
-        assert BLOB_DIR.exists() && BLOB_DIR.isDirectory();
-        INDEX_DIR.mkdir();
-        assert INDEX_DIR.exists() && INDEX_DIR.isDirectory();
-        REPO_DIR.mkdir();
-        assert REPO_DIR.exists() && REPO_DIR.isDirectory();
+        store.commitDir.mkdir();
+        assert store.commitDir.exists() && store.commitDir.isDirectory();
+        store.blobDir.mkdir();
+        assert store.blobDir.exists() && store.blobDir.isDirectory();
         save();
     }
 
+    /**
+     * Saves the staging area and the stat cache if they changed. Refs are written as
+     * soon as they move, see {@link #moveHead}.
+     */
     public void save() {
-        try {
-            if (!REPO.exists()) {
-                REPO.createNewFile();
-            }
-        } catch (IOException e) {
-            System.out.println("Couldn't Create Repo File");
+        if (stage != null) {
+            stage.save();
         }
+        store.statCache.save();
+    }
 
-        writeObject(REPO,this);
+    /** Returns the staging area, loading it if needed. */
+    StagingArea stage() {
+        if (stage == null) {
+            stage = StagingArea.load(store);
+        }
+        return stage;
     }
 
-    public static Repository fromFile() {
-        if (!REPO.exists()) {
+    /** Returns the repository of STORE, or null if there is none. */
+    public static Repository fromFile(Store store) {
+        if (!store.refs.headFile.isFile()) {
+            if (store.file(REPO_DIR, REPO).exists()) {
+                // saved by an older version in the single REPO file
+                return Migration.upgrade(Migration.readRepoFile(store));
+            }
             return null;
         }
-        return readObject(REPO, Repository.class);
+        Repository repo = new Repository(store);
+        repo.currentBranch = store.refs.currentBranch();
+        repo.HEADHash = store.refs.get(repo.currentBranch);
+        return repo;
+    }
+
+    /** Points HEAD, and so the current branch, at the commit HASH. */
+    private void moveHead(String hash) {
+        HEADHash = hash;
+        store.refs.update(currentBranch, hash);
     }
 
     /**
      * Staging an already-staged file overwrites the previous entry in the staging area with the new contents.
      * If the current working version of the file is identical to the version in the current commit, do not stage it to be added
+     * The blob of the file is written right away, the staging area only records its hash.
      * @param fileName name of file to be added
      */
     public void add(String fileName) {
-        FilesToRemove.remove(fileName);
-
-        File file = join(CWD, fileName);
+        fileName = relativePath(fileName);
+        File file = join(store.root, fileName);
 
-        Commit HEAD = Commit.fromFile(HEADHash);
-        Map<String, String> filesInCurrCommit = HEAD.blobs;
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        if (!file.isFile()) {
+            throw error("File does not exist.");
         }
 
 
         if (file.isFile()) {
-            File fileIndexLoc = join(INDEX_DIR, file.getName());
-            if (filesInCurrCommit.containsKey(file.getName())) {
-                String blobHash = filesInCurrCommit.get(file.getName());
+            String blobHash = HEAD.blobHash(fileName);
+            if (blobHash != null) {
                 String hashOfFile = hashFile(file);
 
                 /*
                  * compare the hash in the blob with the generated hash from the file at the directory
                  * If the current working version of the file is identical to the version in the current commit,
                  * do not stage it to be added
+                 * and remove it from the staging area if it is already there
                  * */
                 if (hashOfFile.equals(blobHash)) {
-                    // remove it from the staging area if it is already there
-                    if (fileIndexLoc.exists()) {
-                        fileIndexLoc.delete();
-                    }
+                    stage().unstage(fileName);
                     return;
                 }
             }
 
-            // Create or overwrite the staged file
-            try {
-                if (!fileIndexLoc.exists()) {
-                    fileIndexLoc.createNewFile();
-                }
+            // write the blob once, as a delta against the version in HEAD if possible, and stage its hash
+            stage().add(fileName, new Blob(store, file, blobHash).getHash());
+        }
+    }
 
-            } catch (IOException e) {
-                System.out.println("couldn't create new File");
-            }
-            // make the file in the index
-            String contentOfAddedFile = readContentsAsString(file);
-            writeContents(fileIndexLoc, contentOfAddedFile);
+    /**
+     * Returns FILENAME relative to the working directory, with '/' between directories,
+     * which is how commits and the staging area name files.
+     */
+    String relativePath(String fileName) {
+        Path path = store.root.toPath().resolve(fileName).normalize();
+        return store.root.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
 
+    /** Deletes the working file PATH, then its directories for as long as they are left empty. */
+    void deleteWorkingFile(String path) {
+        File file = join(store.root, path);
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        File dir = file.getParentFile();
+        while (!dir.equals(store.root) && dir.delete()) {
+            dir = dir.getParentFile();
         }
     }
 
+    /**
+     * Hashes FILE, trusting the {@link StatCache} for files that haven't changed
+     * since they were last hashed.
+     */
     private String hashFile(File file) {
-        String content = readContentsAsString(file);
-        return sha1(content);
+        return store.statCache.hash(file);
     }
 
 
-    public Map<String, File> getFilesInIndex() {
-        Map<String, File> filesToBeAdded = new HashMap();
-        List<String> fileNames = plainFilenamesIn(INDEX_DIR);
-        if (fileNames == null) {
-            return null;
-        }
-        for (String nameOfFile : fileNames) {
-            filesToBeAdded.put(nameOfFile, join(INDEX_DIR, nameOfFile));
-        }
-        return filesToBeAdded;
-    }
     public void commit(String message) {
-        Map<String, File> filesToBeAdded = getFilesInIndex();
-        if (filesToBeAdded == null) {
-            System.exit(0);
-        }
+        commit(message, Instant.now());
+    }
 
-        if (filesToBeAdded.isEmpty() && FilesToRemove.isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+    /** Commits what is staged with MESSAGE, dated TIMESTAMP. */
+    void commit(String message, Instant timestamp) {
+        StagingArea stage = stage();
+        if (stage.isEmpty()) {
+            throw error("No changes added to the commit.");
         }
 
-        Commit HEAD = Commit.fromFile(HEADHash);
-        HEAD = new Commit(HEAD, filesToBeAdded, message,Instant.now(), FilesToRemove);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        HEAD = new Commit(HEAD, stage.added(), message, timestamp, stage.removed());
 
-        FilesToRemove = new HashSet<>();
+        stage.clear();
 
-        this.HEADHash = HEAD.getHash();
-        branches.put(currentBranch, HEADHash);
-
-        // delete the files in the index
-        for (File file : filesToBeAdded.values()) {
-            if (file.exists()) {
-                file.delete();
-            }
-        }
+        moveHead(HEAD.getHash());
     }
 
     public void rm(String fileName) {
-        File fileToRemove = join(CWD, fileName);
-        if (!fileToRemove.exists()) {
-            FilesToRemove.add(fileName);
+        fileName = relativePath(fileName);
+        File fileToRemove = join(store.root, fileName);
+        StagingArea stage = stage();
+        if (!fileToRemove.isFile()) {
+            stage.remove(fileName);
             return;
         }
         String fileToRemoveHash = hashFile(fileToRemove);
         // Unstage the file if it is currently staged for addition.
-        List<String> stagedFiles = plainFilenamesIn(INDEX_DIR);
-
-        if (stagedFiles != null && stagedFiles.contains(fileToRemove.getName())) {
-            String fileInIndexHash = hashFile(join(INDEX_DIR, fileName));
-            if (fileInIndexHash.equals(fileToRemoveHash)) {
-                // remove file from the index.
-                (join(INDEX_DIR, fileName)).delete();
-                return;
-            }
+        String stagedHash = stage.added().get(fileName);
+        if (stagedHash != null && stagedHash.equals(fileToRemoveHash)) {
+            // remove file from the index.
+            stage.unstage(fileName);
+            return;
         }
-        Commit HEAD = Commit.fromFile(HEADHash);
-        if (!HEAD.blobs.containsKey(fileName)) {
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        if (HEAD.blobHash(fileName) == null) {
             // do not remove it unless it is tracked in the current commit
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
         // stage it for removal
-        FilesToRemove.add(fileName);
+        stage.remove(fileName);
 
-        if (fileToRemove.exists()) {
-            Utils.restrictedDelete(fileToRemove);
-        }
+        deleteWorkingFile(fileName);
 
     }
 
     public void log() {
-        Commit HEAD = Commit.fromFile(HEADHash);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
         Commit current = HEAD;
 
         while (current != null) {
@@ -246,35 +258,118 @@ public class Repository implements Serializable {
         }
     }
 
-    public void global_log() {
-        List<String> commitFiles = Utils.plainFilenamesIn(COMMIT_DIR);
-        if (commitFiles == null) {
-            System.exit(0);
-        }
-        for (String nameOfFile : commitFiles) {
-//            Commit.fromFile(nameOfFile); // Because the name of the File is the hash
-            // another Approach
-            Commit currCommit = Utils.readObject(join(COMMIT_DIR, nameOfFile), Commit.class);
-            currCommit.printCommit();
-            System.out.println();
+    /** Number of commits decoded and formatted by one global-log task. */
+    private static final int GLOBAL_LOG_BATCH = 256;
+
+    /**
+     * Prints every commit in the repository, in id order, or newest first if DATEORDER.
+     * Commits are read and formatted in batches on the {@link Workers} pool, while this
+     * thread writes the finished batches in order to one buffered writer. At most two
+     * batches per worker are in flight, so memory stays bounded however many commits
+     * there are.
+     */
+    public void global_log(boolean dateOrder) {
+        Iterator<String> commitFiles = dateOrder ? hashesByDate() : Commit.allHashes(store).iterator();
+        ForkJoinPool pool = Workers.pool();
+        Deque<Future<String>> inFlight = new ArrayDeque<>();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            while (commitFiles.hasNext()) {
+                List<String> batch = new ArrayList<>(GLOBAL_LOG_BATCH);
+                while (batch.size() < GLOBAL_LOG_BATCH && commitFiles.hasNext()) {
+                    batch.add(commitFiles.next());
+                }
+                inFlight.add(pool.submit(() -> formatCommits(batch)));
+                if (inFlight.size() >= 2 * Workers.THREADS) {
+                    out.write(inFlight.poll().get());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                out.write(inFlight.poll().get());
+            }
+            out.flush();
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
     }
 
-    public void find(String message) {
-        List<String> commitFiles = Utils.plainFilenamesIn(COMMIT_DIR);
-        if (commitFiles == null) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+    private String formatCommits(List<String> hashes) {
+        StringBuilder entries = new StringBuilder(hashes.size() * 160);
+        for (String nameOfFile : hashes) {
+            // Because the name of the File is the hash
+            Commit currCommit = Commit.fromFile(store, nameOfFile);
+            entries.append(currCommit.formatCommit()).append(System.lineSeparator());
         }
-        List<String> res = new LinkedList<>();
+        return entries.toString();
+    }
 
-        for (String nameOfFile : commitFiles) {
-            Commit currCommit = Utils.readObject(join(COMMIT_DIR, nameOfFile), Commit.class);
-            String messageOfCommit = currCommit.getMessage();
-            if (message.equals(messageOfCommit)) {
-                res.add(currCommit.getHash());
+    /**
+     * The hashes of all commits, newest first, as a walk of the commit graph so no
+     * commit has to be read, and none but the commits waiting in the queue are held.
+     * The walk starts from the branch heads and from every commit without children,
+     * which covers the commits no branch leads to any more, and always goes on with
+     * the newest commit reached, so a commit comes after its children.
+     */
+    private Iterator<String> hashesByDate() {
+        CommitGraph graph = CommitGraph.load(store);
+        if (graph.size() != Commit.allHashes(store).size()) {
+            CommitGraph.rebuild(store);
+            graph = CommitGraph.load(store);
+        }
+        CommitGraph byDate = graph;
+        // newest first, and for equal timestamps the commit created last first
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Long.compare(byDate.timestamp(b), byDate.timestamp(a));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        boolean[] seen = new boolean[byDate.size()];
+        for (String branch : store.refs.branches()) {
+            int head = byDate.position(store.refs.get(branch));
+            if (head >= 0 && !seen[head]) {
+                seen[head] = true;
+                queue.add(head);
+            }
+        }
+        boolean[] hasChild = new boolean[byDate.size()];
+        for (int i = 0; i < byDate.size(); i += 1) {
+            for (int parent : new int[] {byDate.firstParent(i), byDate.secondParent(i)}) {
+                if (parent >= 0) {
+                    hasChild[parent] = true;
+                }
             }
         }
+        for (int i = 0; i < byDate.size(); i += 1) {
+            if (!hasChild[i] && !seen[i]) {
+                seen[i] = true;
+                queue.add(i);
+            }
+        }
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                int commit = queue.remove();
+                for (int parent : new int[] {byDate.firstParent(commit), byDate.secondParent(commit)}) {
+                    if (parent >= 0 && !seen[parent]) {
+                        seen[parent] = true;
+                        queue.add(parent);
+                    }
+                }
+                return byDate.hashAt(commit);
+            }
+        };
+    }
+
+    /**
+     * Prints the ids of all commits with the given message, answered from the
+     * {@link MessageIndex} without reading any commit.
+     */
+    public void find(String message) {
+        List<String> res = MessageIndex.find(store, message);
 
         for (String id : res) {
             System.out.println(id);
@@ -287,10 +382,9 @@ public class Repository implements Serializable {
 
 
     public void status() {
+        Status status = currentStatus();
         System.out.println("=== Branches ===");
-        List<String> branchNames = new ArrayList<>(branches.keySet());
-        Collections.sort(branchNames);
-        for (String branch : branchNames) {
+        for (String branch : status.getBranches()) {
             if (branch.equals(currentBranch)) {
                 System.out.printf("*%s%n", currentBranch);
                 continue;
@@ -300,58 +394,132 @@ public class Repository implements Serializable {
         }
         System.out.println();
 
-        Map<String, File> filesToBeAdded = getFilesInIndex();
-
-        List<String> addedFiles = new ArrayList<>(filesToBeAdded.keySet());
-        Collections.sort(addedFiles);
-
         System.out.println("=== Staged Files ===");
-        for (String fileName : addedFiles) {
+        for (String fileName : status.getStaged()) {
             System.out.println(fileName);
         }
         System.out.println();
 
 
         System.out.println("=== Removed Files ===");
-        List<String> filesToRemove = new ArrayList<>(FilesToRemove);
-        Collections.sort(filesToRemove);
-        for (String removed : filesToRemove) {
+        for (String removed : status.getRemoved()) {
             System.out.println(removed);
         }
         System.out.println();
 
 
-        List<String> filesInWD = plainFilenamesIn(CWD);
-        Commit HEAD = Commit.fromFile(HEADHash);
-
         System.out.println("=== Modifications Not Staged For Commit ===");
-        for (String fileName: filesInWD) {
-            File file = join(CWD, fileName);
-            if (HEAD.blobs.containsKey(file.getName()) && !compareHashesInCommitAndWD(file, HEAD) && !filesToBeAdded.containsKey(fileName)) {
-                System.out.println(fileName + " (modified)");
-            }
+        for (String fileName : status.getModified()) {
+            System.out.println(fileName + " (modified)");
         }
-        for (String fileName: HEAD.blobs.keySet()) {
-            File file = join(CWD, fileName);
-            if(!filesInWD.contains(fileName) && !filesToRemove.contains(fileName)) {
-                System.out.println(fileName + " (deleted)");
-            }
+        for (String fileName : status.getDeleted()) {
+            System.out.println(fileName + " (deleted)");
         }
         System.out.println();
 
 
         System.out.println("=== Untracked Files ===");
-        if (filesInWD != null) {
-            Collections.sort(filesInWD);
-            for (String fileName : filesInWD) {
-                File file = join(CWD, fileName);
-                if (file.isFile() && !filesToBeAdded.containsKey(file.getName()) && HEAD != null &&!HEAD.blobs.containsKey(file.getName())) {
-                    System.out.println(file.getName());
+        for (String fileName : status.getUntracked()) {
+            System.out.println(fileName);
+        }
+        System.out.println();
+    }
+
+    /** Returns the status of the repository, as printed by status. */
+    Status currentStatus() {
+        List<String> branchNames = store.refs.branches();
+        Map<String, String> filesToBeAdded = stage().added();
+        List<String> addedFiles = new ArrayList<>(filesToBeAdded.keySet());
+        List<String> filesToRemove = new ArrayList<>(stage().removed());
+
+        // one pass over the working directory, alongside the trees of HEAD: untracked files
+        // are settled right away, tracked ones that aren't staged are hashed on the worker pool
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        List<String> untracked = new ArrayList<>();
+        Map<String, String> candidates = new HashMap<>();
+        List<String> deleted = new ArrayList<>();
+        compareDirectory(store.root, "", HEAD.treeHash(), filesToBeAdded, candidates, untracked, deleted);
+        List<String> modified = modifiedFiles(candidates);
+        deleted.removeAll(stage().removed());
+        Collections.sort(untracked);
+        Collections.sort(deleted);
+        store.statCache.save();
+
+        return new Status(currentBranch, branchNames, addedFiles, filesToRemove, modified, deleted, untracked);
+    }
+
+    /**
+     * Sorts the files of the working directory DIR, whose path is PREFIX and whose tree in
+     * HEAD is TREEHASH (null if HEAD has no such directory), and then its subdirectories.
+     * Files that aren't STAGED go to CANDIDATES (path, blob hash in HEAD) if HEAD has them,
+     * to UNTRACKED otherwise, and the files of the tree that aren't there go to DELETED.
+     * Only the trees of directories that are there are read.
+     */
+    private void compareDirectory(File dir, String prefix, String treeHash, Map<String, String> staged,
+                                  Map<String, String> candidates, List<String> untracked, List<String> deleted) {
+        Map<String, Tree.Entry> tracked = treeHash == null ? Collections.emptyMap() : Tree.list(store, treeHash);
+        Set<String> present = new HashSet<>();
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (prefix.isEmpty() && name.equals(store.dir.getName())) {
+                continue;
+            }
+            File file = new File(dir, name);
+            String path = prefix + name;
+            Tree.Entry entry = tracked.get(name);
+            if (file.isDirectory()) {
+                boolean trackedDir = entry != null && entry.isTree;
+                if (trackedDir) {
+                    present.add(name);
+                }
+                compareDirectory(file, path + "/", trackedDir ? entry.hash : null,
+                        staged, candidates, untracked, deleted);
+            } else if (file.isFile()) {
+                boolean trackedFile = entry != null && !entry.isTree;
+                if (trackedFile) {
+                    present.add(name);
+                }
+                if (staged.containsKey(path)) {
+                    continue;
+                }
+                if (trackedFile) {
+                    candidates.put(path, entry.hash);
+                } else {
+                    untracked.add(path);
                 }
             }
         }
-        System.out.println();
+        for (Map.Entry<String, Tree.Entry> item : tracked.entrySet()) {
+            if (present.contains(item.getKey())) {
+                continue;
+            }
+            String path = prefix + item.getKey();
+            if (item.getValue().isTree) {
+                for (String file : Tree.files(store, item.getValue().hash).keySet()) {
+                    deleted.add(path + "/" + file);
+                }
+            } else {
+                deleted.add(path);
+            }
+        }
+    }
 
+    /**
+     * Returns the paths of FILES (path, blob hash in HEAD) whose working version differs,
+     * in sorted order. The files are hashed concurrently on the {@link Workers} pool.
+     */
+    private List<String> modifiedFiles(Map<String, String> files) {
+        List<String> modified;
+        try {
+            modified = Workers.pool().submit(() -> files.entrySet().parallelStream()
+                    .filter(file -> !hashFile(join(store.root, file.getKey())).equals(file.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        Collections.sort(modified);
+        return modified;
     }
 
     /**
@@ -363,11 +531,10 @@ public class Repository implements Serializable {
      * @return
      */
     public boolean compareHashesInCommitAndWD(File file ,Commit HEAD) {
-        Map<String, String> filesInCurrCommit = HEAD.blobs;
-        if (!filesInCurrCommit.containsKey(file.getName())) {
+        String blobHash = HEAD.blobHash(relativePath(file.getPath()));
+        if (blobHash == null) {
             return false;
         }
-        String blobHash = filesInCurrCommit.get(file.getName());
         String hashOfFile = hashFile(file);
 
         if (hashOfFile.equals(blobHash)) {
@@ -386,7 +553,7 @@ public class Repository implements Serializable {
      */
     public void checkout(String fileName) {
 
-        Commit HEAD = Commit.fromFile(HEADHash);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
 
         createOrChangeFileInWD(fileName, HEAD);
     }
@@ -401,54 +568,47 @@ public class Repository implements Serializable {
     public void checkout(String fileName, String commitId) {
         Commit commit = null;
         if (commitId.length() < 40) {
-            commit = Commit.fromFile(findCommitStartsWith(commitId));
+            commit = Commit.fromFile(store, findCommitStartsWith(commitId));
         } else {
-            commit = Commit.fromFile(commitId);
+            commit = Commit.fromFile(store, commitId);
         }
 
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw error("No commit with that id exists.");
         }
         assert commit != null;
         createOrChangeFileInWD(fileName, commit);
     }
 
+    /**
+     * Resolves the abbreviated id COMMITID with the commit index.
+     * @return the full id, or null if no commit starts with COMMITID.
+     * Fails if more than one commit does.
+     */
     private String findCommitStartsWith(String commitId) {
-        List<String> Commits = plainFilenamesIn(COMMIT_DIR);
-        if (Commits == null) {
-            return null;
-        }
-
-        for (String id : Commits) {
-            if (id.startsWith(commitId)) {
-                return id;
-            }
+        List<String> Commits = CommitIndex.startingWith(store, commitId);
+        if (Commits.size() > 1) {
+            throw new GitletException("Ambiguous commit id, it matches:\n" + String.join("\n", Commits));
         }
-        return  null;
+        return Commits.isEmpty() ? null : Commits.get(0);
     }
 
     private void createOrChangeFileInWD(String fileName, Commit commit) {
         // If the file does not exist in the previous commit, abort, printing the error message
         // File does not exist in that commit. Do not change the CWD.
-
-        if (!commit.blobs.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            return;
+        fileName = relativePath(fileName);
+        String blobHash = commit.blobHash(fileName);
+        if (blobHash == null) {
+            throw error("File does not exist in that commit.");
         }
-        Blob fileBlob = Blob.fromFile(commit.blobs.get(fileName));
+        Blob fileBlob = Blob.fromFile(store, blobHash);
 
         assert fileBlob != null;
 
-        File fileInWD = join(CWD, fileName);
-        if (!fileInWD.exists()) {
-            try {
-                fileInWD.createNewFile();
-            } catch (IOException e) {
-                System.out.println("couldn't create file in checkout command");
-            }
-        }
-        Utils.writeContents(fileInWD, fileBlob.getContent());
+        File fileInWD = join(store.root, fileName);
+        fileInWD.getParentFile().mkdirs();
+        // writeTo creates the file if needed
+        fileBlob.writeTo(fileInWD);
     }
 
     /**
@@ -468,19 +628,17 @@ public class Repository implements Serializable {
         }
 
         String branchName = fileName_branchName;
-         if (!branches.containsKey(branchName)) {
-             System.out.println("No such branch exists.");
-             System.exit(0);
+         if (!store.refs.exists(branchName)) {
+             throw error("No such branch exists.");
          }
          if(currentBranch.equals(branchName)) {
-             System.out.println("No need to checkout the current branch.");
-             System.exit(0);
+             throw error("No need to checkout the current branch.");
          }
 
         // Takes all files in the commit at the head of the given branch, and puts them in the working directory,
         // overwriting the versions of the files that are already there if they exist.
 
-        Commit commitOfCheckoutBranch = Commit.fromFile(branches.get(branchName));
+        Commit commitOfCheckoutBranch = Commit.fromFile(store, store.refs.get(branchName));
         assert commitOfCheckoutBranch != null;
 
         checkoutToCommit(commitOfCheckoutBranch);
@@ -488,104 +646,130 @@ public class Repository implements Serializable {
         // the given branch will now be considered the current branch (HEAD)
         currentBranch = branchName;
         HEADHash = commitOfCheckoutBranch.getHash();
+        store.refs.setCurrentBranch(branchName);
     }
 
     /**
      * Checks If a working file is untracked in the current branch and would be overwritten by the checkout
-     * @param commit the commit that may overwrite a file
+     * @param diff what changes from HEAD to the commit that may overwrite a file
      * @return true If a working file is untracked in the current branch, and it would be overwritten by the checkout
      */
-    private boolean untrackedFileExists(Commit commit) {
-        List<String> fileInWD = plainFilenamesIn(CWD);
-        Commit HEAD = Commit.fromFile(HEADHash);
-        for (String fileName : fileInWD) {
-
-            if (!HEAD.blobs.containsKey(fileName) && commit.blobs.containsKey(fileName)) {
+    private boolean untrackedFileExists(Tree.Diff diff) {
+        // only the files HEAD doesn't track can be untracked, no need to list the whole directory
+        Set<String> removed = new HashSet<>(diff.removed);
+        for (String fileName : diff.added.keySet()) {
+            File file = join(store.root, fileName);
+            if (file.isFile() || (file.isDirectory() && !onlyFilesIn(file, removed))) {
                 return true;
             }
+            // a file where the commit has a directory
+            for (int slash = fileName.indexOf('/'); slash >= 0; slash = fileName.indexOf('/', slash + 1)) {
+                String dir = fileName.substring(0, slash);
+                if (join(store.root, dir).isFile() && !removed.contains(dir)) {
+                    return true;
+                }
+            }
         }
         return false;
     }
 
+    /** Returns true if every file under the working directory DIR is one of FILES. */
+    private boolean onlyFilesIn(File dir, Set<String> files) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .allMatch(path -> files.contains(relativePath(path.toString())));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Makes the working directory match commitOfCheckoutBranch, touching only the files that differ.
+     * The trees of HEAD and the target are compared, skipping every directory that is the
+     * same tree in both (see {@link Tree#diff}). Files tracked by HEAD but not by the target
+     * are deleted. A file is only written if the target has a different version of it than
+     * HEAD, so switching between two commits that differ in a few files writes only those files.
+     * The files are written by the {@link CheckoutPipeline}.
+     */
     private void checkoutToCommit(Commit commitOfCheckoutBranch) {
-        List<String> fileInWD = plainFilenamesIn(CWD);
-        Commit HEAD = Commit.fromFile(HEADHash);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        Tree.Diff diff = Tree.diff(store, HEAD.treeHash(), commitOfCheckoutBranch.treeHash());
 
         // If a working file is untracked in the current branch and would be overwritten by the checkout,
-        // print There is an untracked file in the way; delete it, or add and commit it first. and exit
-        if (untrackedFileExists(commitOfCheckoutBranch)) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+        // fail with There is an untracked file in the way; delete it, or add and commit it first.
+        if (untrackedFileExists(diff)) {
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
 
-
-
-        for (String fileName : fileInWD) {
-            // Any files that are tracked in the current branch but are not present in the checked-out branch
-            // are deleted.
-            if (!commitOfCheckoutBranch.blobs.containsKey(fileName)) {
-                Utils.restrictedDelete(join(CWD, fileName));
-                continue;
-            }
-            // Takes all files in the commit at the head of the given branch, and puts them in the working directory,
-            // overwriting the versions of the files that are already there if they exist
-            createOrChangeFileInWD(fileName, commitOfCheckoutBranch);
+        // Any files that are tracked in the current branch but are not present in the checked-out branch
+        // are deleted.
+        for (String fileName : diff.removed) {
+            deleteWorkingFile(fileName);
         }
 
-        for (String fileName : commitOfCheckoutBranch.blobs.keySet()) {
-            // Takes all files in the commit at the head of the given branch, and puts them in the working directory,
-            // overwriting the versions of the files that are already there if they exist
-            createOrChangeFileInWD(fileName, commitOfCheckoutBranch);
+        Map<String, String> toWrite = new HashMap<>(diff.added);
+        toWrite.putAll(diff.modified);
+        Set<File> dirs = new HashSet<>();
+        for (String fileName : toWrite.keySet()) {
+            File dir = join(store.root, fileName).getParentFile();
+            if (dirs.add(dir)) {
+                dir.mkdirs();
+            }
         }
+        CheckoutPipeline.materialize(store, toWrite);
 
 
-        Map<String,File> filesToBeAdded = getFilesInIndex();
         // clear the staging area
-        for (File file : filesToBeAdded.values()) {
-            if (file.exists()) {
-                file.delete();
-            }
-        }
+        stage().clear();
     }
 
     public void branch(String branchName) {
-        if (branches.containsKey(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            return;
+        if (store.refs.exists(branchName)) {
+            throw error("A branch with that name already exists.");
         }
 
-        branches.put(branchName, HEADHash);
+        store.refs.update(branchName, HEADHash);
     }
 
     public void rm_branch(String branchName) {
-        if (!branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+        if (!store.refs.exists(branchName)) {
+            throw error("A branch with that name does not exist.");
         }
         else if (branchName.equals(currentBranch)) {
-            System.out.println("Cannot remove the current branch.");
-            return;
+            throw error("Cannot remove the current branch.");
         }
-        branches.remove(branchName);
+        store.refs.delete(branchName);
     }
 
     public void reset(String commitId) {
         Commit commit = null;
 
         if (commitId.length() < 40) {
-            commit = Commit.fromFile(findCommitStartsWith(commitId));
+            commit = Commit.fromFile(store, findCommitStartsWith(commitId));
         }
         else {
-            commit = Commit.fromFile(commitId);
+            commit = Commit.fromFile(store, commitId);
         }
-        Commit HEAD = Commit.fromFile(HEADHash);
+        Commit HEAD = Commit.fromFile(store, HEADHash);
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw error("No commit with that id exists.");
         }
         checkoutToCommit(commit);
-        HEADHash = commit.getHash();
-        branches.put(currentBranch, commitId);
+        moveHead(commit.getHash());
+    }
+
+    /**
+     * Folds all loose commits and blobs into the pack, see {@link Pack}.
+     */
+    public void repack() {
+        Pack.repack(store);
+    }
+
+    /**
+     * Moves every branch into the packed-refs file, see {@link Refs}.
+     */
+    public void packRefs() {
+        store.refs.pack();
     }
 
     /**
@@ -593,84 +777,65 @@ public class Repository implements Serializable {
      * @param branchName the branch to be merged with
      */
     public void merge(String branchName) {
+        MergeResult result = merge(branchName, Instant.now());
+        if (result.getOutcome().message != null) {
+            System.out.println(result.getOutcome().message);
+        }
+    }
 
-        if (!FilesToRemove.isEmpty() || !getFilesInIndex().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            return;
+    /**
+     * Merges the given branch into the current branch, dating the merge commit TIMESTAMP.
+     * @return what the merge did
+     */
+    MergeResult merge(String branchName, Instant timestamp) {
+        if (!stage().isEmpty()) {
+            throw error("You have uncommitted changes.");
         }
-        if (!branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+        if (!store.refs.exists(branchName)) {
+            throw error("A branch with that name does not exist.");
         }
         if (branchName.equals(currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            return;
+            throw error("Cannot merge a branch with itself.");
         }
 
-        Commit HEAD = Commit.fromFile(HEADHash);
-        Commit branch = Commit.fromFile(branches.get(branchName));
+        Commit HEAD = Commit.fromFile(store, HEADHash);
+        Commit branch = Commit.fromFile(store, store.refs.get(branchName));
 
-        if (untrackedFileExists(branch)) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            return;
+        if (untrackedFileExists(Tree.diff(store, HEAD.treeHash(), branch.treeHash()))) {
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
 
         String splitPoint = findSplitPoint(HEAD, branch);
 
         assert splitPoint != null;
         if (splitPoint.equals(branch.getHash())) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            return;
+            return new MergeResult(MergeResult.Outcome.ANCESTOR, HEADHash);
         }
 
         if (splitPoint.equals(HEAD.getHash())) {
-            System.out.println("Current branch fast-forwarded.");
             checkoutToCommit(branch);
-            HEADHash = branches.get(branchName);
-            branches.put(currentBranch, HEADHash);
-            return;
+            moveHead(branch.getHash());
+            return new MergeResult(MergeResult.Outcome.FAST_FORWARD, HEADHash);
         }
 
-        if (splitPoint == null) System.out.println("didn't find a split point");
-        Commit newCommit = new Commit(HEAD, branch, Commit.fromFile(splitPoint), currentBranch, branchName,Instant.now(), this);
-        HEADHash = newCommit.getHash();
-        branches.put(currentBranch, HEADHash);
+        Commit newCommit = new Commit(HEAD, branch, Commit.fromFile(store, splitPoint), currentBranch, branchName, timestamp, this);
+        moveHead(newCommit.getHash());
+        return new MergeResult(newCommit.conflicted ? MergeResult.Outcome.CONFLICT : MergeResult.Outcome.MERGED,
+                HEADHash);
     }
 
-    private String findSplitPoint(Commit HEAD, Commit branch) {
-
-        // BFS of HEAD
-        Queue<Commit> queue = new LinkedList<>();
-
-        Set<String> seen = new HashSet<>();
-        queue.add(HEAD);
-        while (!queue.isEmpty()) {
-            Commit commit = queue.poll();
-            seen.add(commit.getHash());
-            if (commit.getParent() != null) {
-                queue.add(commit.getParent());
-            }
-            if (commit.getSecondParent() != null) {
-                queue.add(commit.getSecondParent());
-            }
-        }
-
-        // BFS branch
-        queue.add(branch);
-        while(!queue.isEmpty()) {
-            Commit commit = queue.poll();
-            if (seen.contains(commit.getHash())) {
-                return commit.getHash();
-            }
-            if (commit.getParent() != null) {
-                queue.add(commit.getParent());
-            }
-            if (commit.getSecondParent() != null) {
-                queue.add(commit.getSecondParent());
-            }
-        }
-
-        return null;
+    /**
+     * Finds the latest common ancestor of HEAD and branch with the commit graph,
+     * without loading any commit, see {@link CommitGraph#mergeBase}.
+     */
+    String findSplitPoint(Commit HEAD, Commit branch) {
+        CommitGraph graph = CommitGraph.load(store);
+        if (!graph.contains(HEAD.getHash()) || !graph.contains(branch.getHash())) {
+            // commits made without the graph, bring it up to date
+            CommitGraph.rebuild(store);
+            graph = CommitGraph.load(store);
+        }
+        return graph.mergeBase(HEAD.getHash(), branch.getHash());
     }
 
 
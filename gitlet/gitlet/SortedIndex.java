@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * A file of fixed-size entries sorted by their bytes, laid out like git's idx files,
+ * so an entry is found with a binary search instead of a scan. Each entry starts with
+ * a 20-byte hash, which the fan-out table is over:
+ *
+ * NAME     : MAGIC, VERSION, fan-out table of 256 ints, then the sorted entries.
+ *            Entry b of the fan-out table is the number of entries whose first byte
+ *            is at most b, so the entries starting with byte b are the range
+ *            [fanout[b - 1], fanout[b]).
+ * NAME.new : the unsorted entries added since NAME was last written. Once it holds
+ *            JOURNAL_LIMIT entries it is merged into NAME, so it never costs more
+ *            than a short linear scan.
+ *
+ * The {@link CommitIndex}, the {@link MessageIndex} and the lookup table of the
+ * {@link CommitGraph} are such files, each with a MAGIC and entries of its own.
+ *
+ *  @author AGX
+ */
+class SortedIndex {
+
+    /** Number of journaled entries that triggers a merge into the index. */
+    static final int JOURNAL_LIMIT = 1024;
+
+    private static final int VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    private static final int HEADER = 8 + FANOUT_SIZE * 4;
+
+    private final File file;
+    private final File journalFile;
+    private final int magic;
+    private final int entrySize;
+    /** FILE as it was mapped, on first use. */
+    private ByteBuffer index;
+    /** The entries of journalFile, read on first use. */
+    private List<byte[]> journal;
+
+    /** The index in FILE, whose header starts with MAGIC, of entries of ENTRYSIZE bytes. */
+    SortedIndex(File file, int magic, int entrySize) {
+        this.file = file;
+        this.journalFile = new File(file.getPath() + ".new");
+        this.magic = magic;
+        this.entrySize = entrySize;
+    }
+
+    boolean exists() {
+        return file.isFile();
+    }
+
+    /** Number of entries in the index file, those of the journal left out. */
+    int size() {
+        return fanout(FANOUT_SIZE - 1);
+    }
+
+    /** Returns entry I of the index file. */
+    byte[] get(int i) {
+        byte[] entry = new byte[entrySize];
+        index().get(HEADER + i * entrySize, entry);
+        return entry;
+    }
+
+    /** Returns the first entry of the index file that doesn't sort before KEY, compared on the bytes of KEY. */
+    int lowerBound(byte[] key) {
+        ByteBuffer index = index();
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        int lo = fanout((key[0] & 0xff) - 1);
+        int hi = fanout(key[0] & 0xff);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, HEADER + mid * entrySize, wrapped, 0, key.length) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the entries starting with KEY, those of the index file in order, then those of the journal. */
+    List<byte[]> find(byte[] key) {
+        List<byte[]> result = new ArrayList<>();
+        ByteBuffer index = index();
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        int count = size();
+        for (int i = lowerBound(key); i < count; i += 1) {
+            if (compare(index, HEADER + i * entrySize, wrapped, 0, key.length) != 0) {
+                break;
+            }
+            result.add(get(i));
+        }
+        for (byte[] entry : journal()) {
+            if (Arrays.equals(entry, 0, key.length, key, 0, key.length)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the journaled entries, in the order they were added, without a partly written last one. */
+    List<byte[]> journal() {
+        if (journal != null) {
+            return journal;
+        }
+        journal = new ArrayList<>();
+        if (journalFile.isFile()) {
+            byte[] contents = readContents(journalFile);
+            for (int at = 0; at + entrySize <= contents.length; at += entrySize) {
+                journal.add(Arrays.copyOfRange(contents, at, at + entrySize));
+            }
+        }
+        return journal;
+    }
+
+    /** Journals ENTRY, merging the journal into the index file once it is full. The index file must exist. */
+    void add(byte[] entry) {
+        long journaled;
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(entry);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            journaled = channel.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (journal != null) {
+            journal.add(entry);
+        }
+        if (journaled >= (long) JOURNAL_LIMIT * entrySize) {
+            merge();
+        }
+    }
+
+    /** Replaces the index file with the entries ENTRIES, in any order, and drops the journal. */
+    void write(ByteBuffer entries) {
+        int start = entries.position();
+        List<Integer> order = new ArrayList<>(entries.remaining() / entrySize);
+        for (int at = start; at + entrySize <= entries.limit(); at += entrySize) {
+            order.add(at);
+        }
+        order.sort((a, b) -> compare(entries, a, entries, b, entrySize));
+        ByteBuffer sorted = ByteBuffer.allocate(order.size() * entrySize);
+        int last = -1;
+        for (int at : order) {
+            if (last < 0 || compare(entries, last, entries, at, entrySize) != 0) {
+                sorted.put(slice(entries, at, entrySize));
+            }
+            last = at;
+        }
+        sorted.flip();
+        replace(sorted);
+    }
+
+    /**
+     * Merges the journal into the index file: the journal is sorted, then both are
+     * walked together once, the way merge sort joins two sorted runs.
+     */
+    private void merge() {
+        ByteBuffer index = index();
+        List<byte[]> sorted = new ArrayList<>(journal());
+        sorted.sort(Arrays::compareUnsigned);
+        int count = size();
+        ByteBuffer entries = ByteBuffer.allocate((count + sorted.size()) * entrySize);
+        int i = 0;
+        byte[] last = null;
+        for (byte[] entry : sorted) {
+            ByteBuffer key = ByteBuffer.wrap(entry);
+            int cmp = -1;
+            while (i < count && (cmp = compare(index, HEADER + i * entrySize, key, 0, entrySize)) < 0) {
+                entries.put(slice(index, HEADER + i * entrySize, entrySize));
+                i += 1;
+            }
+            if (cmp != 0 && !Arrays.equals(entry, last)) {
+                entries.put(entry);
+            }
+            last = entry;
+        }
+        entries.put(slice(index, HEADER + i * entrySize, (count - i) * entrySize));
+        entries.flip();
+        replace(entries);
+    }
+
+    /** Replaces the index file with the sorted entries ENTRIES, and drops the journal. */
+    private void replace(ByteBuffer entries) {
+        int count = entries.remaining() / entrySize;
+        int[] fanout = new int[FANOUT_SIZE];
+        for (int i = 0; i < count; i += 1) {
+            fanout[entries.get(i * entrySize) & 0xff] += 1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(magic);
+        header.putInt(VERSION);
+        int total = 0;
+        for (int b = 0; b < FANOUT_SIZE; b += 1) {
+            total += fanout[b];
+            header.putInt(total);
+        }
+        header.flip();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (ByteBuffer part : new ByteBuffer[] {header, entries}) {
+                while (part.hasRemaining()) {
+                    channel.write(part);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalFile.delete();
+        index = null;
+        journal = new ArrayList<>();
+    }
+
+    private ByteBuffer index() {
+        if (index != null) {
+            return index;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER || mapped.getInt(0) != magic || mapped.getInt(4) != VERSION
+                    || (size - HEADER) % entrySize != 0) {
+                throw new IllegalArgumentException("corrupt " + file.getName());
+            }
+            index = mapped;
+            return index;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The number of entries whose first byte is at most B, 0 for B < 0. */
+    private int fanout(int b) {
+        if (b < 0) {
+            return 0;
+        }
+        return index().getInt(8 + b * 4);
+    }
+
+    /** Compares LENGTH bytes at OFFSET1 of BUFFER1 and OFFSET2 of BUFFER2 as unsigned bytes. */
+    private static int compare(ByteBuffer buffer1, int offset1, ByteBuffer buffer2, int offset2, int length) {
+        for (int k = 0; k < length; k += 1) {
+            int cmp = Integer.compare(buffer1.get(offset1 + k) & 0xff, buffer2.get(offset2 + k) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        return buffer.duplicate().position(offset).limit(offset + length);
+    }
+}
@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * The staging area, kept in one small binary file.
+ * `add` writes the blob of a file right away and only records its name and blob hash
+ * here, so `commit` just has to assemble hashes. Files staged for removal are kept in
+ * the same file.
+ *
+ * index : MAGIC, VERSION, number of added files (int), then [name (UTF), blob hash (20 bytes)]
+ *         for each, number of removed files (int), then [name (UTF)] for each, and finally
+ *         the SHA-1 of everything before it (20 bytes).
+ *
+ *  @author AGX
+ */
+class StagingArea {
+
+    /** The index file, in the .gitlet directory. */
+    static final String INDEX_FILE = "index";
+
+    private static final int MAGIC = 0x474c5354; // "GLST"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+
+    private final Store store;
+
+    /** (name of the file, hash of its staged blob) */
+    private final Map<String, String> added = new TreeMap<>();
+
+    /** names of the files staged for removal */
+    private final Set<String> removed = new TreeSet<>();
+
+    private boolean dirty;
+
+    private StagingArea(Store store) {
+        this.store = store;
+    }
+
+    /** Returns the staging area of STORE saved in INDEX_FILE, or an empty one. */
+    static StagingArea load(Store store) {
+        StagingArea stage = new StagingArea(store);
+        File file = store.file(INDEX_FILE);
+        if (!file.isFile()) {
+            return stage;
+        }
+        byte[] contents = readContents(file);
+        if (contents.length < HASH_BYTES) {
+            throw error("The staging area is corrupt.");
+        }
+        byte[] body = Arrays.copyOf(contents, contents.length - HASH_BYTES);
+        byte[] checksum = Arrays.copyOfRange(contents, contents.length - HASH_BYTES, contents.length);
+        if (!Arrays.equals(toBytes(sha1(body)), checksum)) {
+            throw error("The staging area is corrupt.");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("The staging area is corrupt.");
+            }
+            byte[] hash = new byte[HASH_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                in.readFully(hash);
+                stage.added.put(name, toHex(hash));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                stage.removed.add(in.readUTF());
+            }
+        } catch (IOException excp) {
+            throw error("The staging area is corrupt.");
+        }
+        return stage;
+    }
+
+    /** Writes the staging area back to INDEX_FILE if it changed. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(added.size());
+            for (Map.Entry<String, String> entry : added.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(toBytes(entry.getValue()));
+            }
+            out.writeInt(removed.size());
+            for (String name : removed) {
+                out.writeUTF(name);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] body = bytes.toByteArray();
+        File tmp = store.file(INDEX_FILE + ".tmp");
+        writeContents(tmp, body, toBytes(sha1(body)));
+        try {
+            Files.move(tmp.toPath(), store.file(INDEX_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /** Stages the blob BLOBHASH as the new contents of FILENAME. */
+    void add(String fileName, String blobHash) {
+        removed.remove(fileName);
+        added.put(fileName, blobHash);
+        dirty = true;
+    }
+
+    /** Stages FILENAME for removal. */
+    void remove(String fileName) {
+        added.remove(fileName);
+        removed.add(fileName);
+        dirty = true;
+    }
+
+    /** Drops FILENAME from the staging area, whether it was staged for addition or removal. */
+    void unstage(String fileName) {
+        if (added.remove(fileName) != null | removed.remove(fileName)) {
+            dirty = true;
+        }
+    }
+
+    /** Empties the staging area. */
+    void clear() {
+        if (!isEmpty()) {
+            added.clear();
+            removed.clear();
+            dirty = true;
+        }
+    }
+
+    boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /** (name of the file, hash of its staged blob) of the files staged for addition, sorted by name. */
+    Map<String, String> added() {
+        return Collections.unmodifiableMap(added);
+    }
+
+    /** The files staged for removal, sorted. */
+    Set<String> removed() {
+        return Collections.unmodifiableSet(removed);
+    }
+}
@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * The stat cache: for every working file we have hashed, its size, modification time
+ * and inode at the time, plus the hash we got, like the stat data in git's index.
+ * A file whose stat data hasn't changed since is trusted to still have that hash, so
+ * `status` and `add` only read files that were actually touched.
+ *
+ * A file modified within RACY_WINDOW of being hashed could change again without its
+ * modification time moving on a coarse file system, so such files are not cached.
+ *
+ * stat-cache : MAGIC, VERSION, count (int), then count entries of
+ *              [path (UTF), size (long), mtime in nanos (long), inode (long), hash (20 bytes)]
+ *
+ *  @author AGX
+ */
+class StatCache {
+
+    /** The stat cache file, in the .gitlet directory. */
+    static final String CACHE_FILE = "stat-cache";
+
+    /** How recently modified, in nanoseconds, a file has to be for its stat data not to be trusted. */
+    static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private static final int MAGIC = 0x474c5343; // "GLSC"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+
+    /** Whether the file system has unix attributes (and so inode numbers). */
+    private static volatile boolean unix = true;
+
+    private final Store store;
+
+    /** The entries, by path relative to the working directory. */
+    private Map<String, Entry> entries;
+
+    private volatile boolean dirty;
+
+    /** The stat cache of the working files of STORE. */
+    StatCache(Store store) {
+        this.store = store;
+    }
+
+    /** Stat data of one file and the hash of its contents. */
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final String hash;
+
+        Entry(long size, long mtime, long inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        boolean matches(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of the contents of FILE, which must be in the working
+     * directory. The file is only read if its stat data changed since it was last hashed.
+     */
+    String hash(File file) {
+        Path path = file.toPath();
+        String key = store.root.toPath().relativize(path.toAbsolutePath()).toString();
+        Entry now = stat(path);
+        Entry cached = entries().get(key);
+        if (cached != null && now != null && cached.matches(now)) {
+            return cached.hash;
+        }
+        String hash = Blob.hashOf(file);
+        if (now != null && System.currentTimeMillis() * 1_000_000L - now.mtime > RACY_WINDOW) {
+            entries().put(key, new Entry(now.size, now.mtime, now.inode, hash));
+            dirty = true;
+        } else if (cached != null) {
+            entries().remove(key);
+            dirty = true;
+        }
+        return hash;
+    }
+
+    /** Writes the cache back if anything changed. */
+    synchronized void save() {
+        if (!dirty || !store.exists()) {
+            return;
+        }
+        File tmp = store.file(CACHE_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(toBytes(entry.hash));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), store.file(CACHE_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /** Drops the entries read by this process, and any change not saved yet. */
+    synchronized void forget() {
+        entries = null;
+        dirty = false;
+    }
+
+    private synchronized Map<String, Entry> entries() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new ConcurrentHashMap<>();
+        File file = store.file(CACHE_FILE);
+        if (!file.isFile()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // unknown format, start from scratch
+                return entries;
+            }
+            int count = in.readInt();
+            byte[] hash = new byte[HASH_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(hash);
+                entries.put(path, new Entry(size, mtime, inode, toHex(hash)));
+            }
+        } catch (IOException excp) {
+            // a damaged cache only costs rehashing
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /** Returns the stat data of PATH (with no hash), or null if it can't be read. */
+    private static Entry stat(Path path) {
+        try {
+            if (unix) {
+                Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                return new Entry((Long) attrs.get("size"),
+                        ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                        (Long) attrs.get("ino"), null);
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0, null);
+        } catch (UnsupportedOperationException excp) {
+            // not a unix file system, size and mtime have to do
+            unix = false;
+            return stat(path);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
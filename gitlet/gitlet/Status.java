@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The status of a repository, as `status` prints it: its branches, what is staged
+ * for addition and for removal, and how the working directory differs from HEAD.
+ * Every list is sorted.
+ *
+ *  @author AGX
+ */
+public final class Status {
+
+    private final String currentBranch;
+    private final List<String> branches;
+    private final List<String> staged;
+    private final List<String> removed;
+    private final List<String> modified;
+    private final List<String> deleted;
+    private final List<String> untracked;
+
+    Status(String currentBranch, List<String> branches, List<String> staged, List<String> removed,
+           List<String> modified, List<String> deleted, List<String> untracked) {
+        this.currentBranch = currentBranch;
+        this.branches = Collections.unmodifiableList(branches);
+        this.staged = Collections.unmodifiableList(staged);
+        this.removed = Collections.unmodifiableList(removed);
+        this.modified = Collections.unmodifiableList(modified);
+        this.deleted = Collections.unmodifiableList(deleted);
+        this.untracked = Collections.unmodifiableList(untracked);
+    }
+
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+
+    /** Returns the names of all branches, the current one included. */
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    /** Returns the files staged for addition. */
+    public List<String> getStaged() {
+        return staged;
+    }
+
+    /** Returns the files staged for removal. */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /** Returns the tracked files whose working version differs and isn't staged. */
+    public List<String> getModified() {
+        return modified;
+    }
+
+    /** Returns the tracked files missing from the working directory, and not staged for removal. */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /** Returns the working files that are neither tracked nor staged. */
+    public List<String> getUntracked() {
+        return untracked;
+    }
+
+    /** Returns true if nothing is staged and the working directory matches HEAD. */
+    public boolean isClean() {
+        return staged.isEmpty() && removed.isEmpty() && modified.isEmpty()
+                && deleted.isEmpty() && untracked.isEmpty();
+    }
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Where a repository lives, its working directory and .gitlet directory, and what
+ * this process keeps loaded from it: the refs, the commit cache, the commit graph,
+ * the pack and the stat cache. Everything that reads or writes a repository is given
+ * its Store, nothing looks at the directory the JVM started in, so one process can
+ * work on several repositories, each with caches of its own.
+ *
+ *  @author AGX
+ */
+class Store {
+
+    /** The working directory, which file names are relative to. */
+    final File root;
+
+    /** The .gitlet directory. */
+    final File dir;
+
+    /** The directory of loose commits. */
+    final File commitDir;
+
+    /** The directory of loose blobs. */
+    final File blobDir;
+
+    /** HEAD and the branches. */
+    final Refs refs;
+
+    /** The commits read from this repository. */
+    final CommitCache commits = new CommitCache();
+
+    /** The hashes of the working files. */
+    final StatCache statCache;
+
+    /** Held while a command runs on this repository through {@link Gitlet}. */
+    final Object lock = new Object();
+
+    /** Number of {@link Gitlet}s open on this repository. */
+    int opened;
+
+    /** The commit graph loaded from this repository, see {@link CommitGraph#load}. */
+    CommitGraph graph;
+
+    /** The pack opened from this repository, see {@link Pack#open}. */
+    Pack pack;
+
+    /** The files whose contents are kept in memory, one way or another. */
+    private final File[] watchedFiles;
+
+    /** The stat data of watchedFiles when watch was last called. */
+    private List<Object> watched;
+
+    /** The repository in the working directory ROOT, which need not exist yet. */
+    Store(File root) {
+        this.root = root.getAbsoluteFile();
+        dir = join(this.root, ".gitlet");
+        commitDir = join(dir, "commits");
+        blobDir = join(dir, "objects");
+        refs = new Refs(dir);
+        statCache = new StatCache(this);
+        watchedFiles = new File[] {
+            refs.headFile, refs.headsDir, refs.packedRefs, file(StagingArea.INDEX_FILE),
+            file(CommitGraph.GRAPH_FILE), file(Pack.PACK_DIR, Pack.INDEX_FILE), file(StatCache.CACHE_FILE),
+        };
+    }
+
+    /** Returns the file NAMES under the .gitlet directory. */
+    File file(String... names) {
+        return join(dir, names);
+    }
+
+    /** Returns true if there is a repository in the working directory. */
+    boolean exists() {
+        return dir.isDirectory();
+    }
+
+    /**
+     * Drops what was loaded from the files another process may have changed, so it is
+     * read again on next use. Commits never change once created, so they stay cached.
+     */
+    void forget() {
+        refs.forget();
+        CommitGraph.forget(this);
+        Pack.close(this);
+        statCache.forget();
+    }
+
+    /**
+     * Drops what was loaded, as forget does, if another process may have changed it:
+     * if the stat data of any file it came from changed since watch was last called.
+     * Returns true if it did.
+     */
+    boolean forgetIfChanged() {
+        if (stat().equals(watched)) {
+            return false;
+        }
+        forget();
+        return true;
+    }
+
+    /** Records the stat data of the files the caches come from, once this process is done changing them. */
+    void watch() {
+        watched = stat();
+    }
+
+    /** Returns the size, modification time and identity of each of watchedFiles, null if missing. */
+    private List<Object> stat() {
+        List<Object> result = new ArrayList<>(watchedFiles.length * 3);
+        for (File file : watchedFiles) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                result.addAll(Arrays.asList(attrs.size(), attrs.lastModifiedTime(), attrs.fileKey()));
+            } catch (IOException excp) {
+                result.addAll(Arrays.asList(null, null, null));
+            }
+        }
+        return result;
+    }
+}
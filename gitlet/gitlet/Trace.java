@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters on the hot paths of the commands, to tell where the time of one goes
+ * without a profiler. `java gitlet.Main --trace COMMAND ...` runs COMMAND and then
+ * prints on stderr, as JSON, for each probe: how many times it ran, how many bytes
+ * it went through, its total and longest time, and a histogram of its times.
+ *
+ * A probe is used as
+ *     long start = Trace.start();
+ *     ... the work ...
+ *     Trace.SHA1.record(start, bytes);
+ * Tracing is off unless --trace is given, and a probe then only reads one volatile
+ * field. Times are wall-clock and inclusive: reading a commit from the pack counts
+ * the pack read too. Probes are safe to record from several threads at once.
+ *
+ * The histogram has a bucket for every power of two: "<2048" counts the calls that
+ * took from 1024 up to 2047 nanoseconds. Empty buckets are left out.
+ *
+ *  @author AGX
+ */
+class Trace {
+
+    /** Whether probes record anything. */
+    private static volatile boolean enabled;
+
+    static final Probe COMMIT_READ = new Probe("Commit.fromFile");
+    static final Probe BLOB_LOOKUP = new Probe("Blob.fromFile");
+    static final Probe SHA1 = new Probe("Utils.sha1");
+    static final Probe READ_OBJECT = new Probe("Utils.readObject");
+    static final Probe DESERIALIZE = new Probe("Utils.deserialize");
+    static final Probe WRITE_OBJECT = new Probe("Utils.writeObject");
+    static final Probe LIST_FILES = new Probe("Utils.plainFilenamesIn");
+    static final Probe WORKTREE_WRITE = new Probe("working tree writes");
+
+    private static final Probe[] PROBES = {
+        COMMIT_READ, BLOB_LOOKUP, SHA1, READ_OBJECT, DESERIALIZE, WRITE_OBJECT, LIST_FILES,
+        WORKTREE_WRITE,
+    };
+
+    private Trace() {
+    }
+
+    /** One instrumented operation. */
+    static class Probe {
+        final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        /** Bucket i counts the calls that took from 2^i up to 2^(i+1) - 1 nanoseconds. */
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+
+        Probe(String name) {
+            this.name = name;
+        }
+
+        /** Records one call that began at START, as returned by Trace.start, and went through BYTES bytes. */
+        void record(long start, long bytes) {
+            if (start == 0 || !enabled) {
+                return;
+            }
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            count.increment();
+            this.bytes.add(bytes);
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(elapsed));
+        }
+
+        private void reset() {
+            count.reset();
+            bytes.reset();
+            nanos.reset();
+            max.reset();
+            for (int i = 0; i < buckets.length(); i += 1) {
+                buckets.set(i, 0);
+            }
+        }
+
+        private void appendTo(StringBuilder json) {
+            json.append('"').append(name).append("\": {\"count\": ").append(count.sum())
+                    .append(", \"bytes\": ").append(bytes.sum())
+                    .append(", \"totalNanos\": ").append(nanos.sum())
+                    .append(", \"maxNanos\": ").append(max.get())
+                    .append(", \"histogram\": {");
+            String separator = "";
+            for (int i = 0; i < buckets.length(); i += 1) {
+                long n = buckets.get(i);
+                if (n > 0) {
+                    String bound = i == 62 ? String.valueOf(Long.MAX_VALUE) : String.valueOf(1L << (i + 1));
+                    json.append(separator).append("\"<").append(bound).append("\": ").append(n);
+                    separator = ", ";
+                }
+            }
+            json.append("}}");
+        }
+    }
+
+    /** Returns the start time of a call to record, or 0 if tracing is off. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Clears every probe and starts recording. */
+    static void begin() {
+        for (Probe probe : PROBES) {
+            probe.reset();
+        }
+        enabled = true;
+    }
+
+    /** Stops recording and returns the report of ARGS, which took ELAPSED nanoseconds, as JSON. */
+    static String end(String[] args, long elapsed) {
+        enabled = false;
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"command\": [");
+        for (int i = 0; i < args.length; i += 1) {
+            json.append(i > 0 ? ", " : "").append(quote(args[i]));
+        }
+        json.append("],\n \"totalNanos\": ").append(elapsed).append(",\n \"probes\": {");
+        for (int i = 0; i < PROBES.length; i += 1) {
+            json.append(i > 0 ? ",\n  " : "\n  ");
+            PROBES[i].appendTo(json);
+        }
+        json.append("\n }\n}");
+        return json.toString();
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
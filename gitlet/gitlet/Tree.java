@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * A directory of a commit: its files and subdirectories, sorted by name, each with the
+ * hash of its blob or of its own tree. A tree is named by the SHA-1 of its encoding, so
+ * a directory that didn't change between two commits is the very same tree object,
+ * shared by both, and comparing two trees skips every subtree whose hash is the same.
+ * Paths of files below a tree are relative to it, with '/' between the directories.
+ *
+ * tree : MAGIC, VERSION, count (int), then count entries of
+ *        [kind (byte, FILE or DIRECTORY), name (UTF), hash (20 bytes)], sorted by name.
+ *
+ * Trees live in TREE_DIR until `repack` moves them into the pack.
+ *
+ *  @author AGX
+ */
+class Tree {
+
+    /** The directory of loose trees, in the .gitlet directory. */
+    static final String TREE_DIR = "trees";
+
+    private static final int MAGIC = 0x474c5452; // "GLTR"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    private static final byte FILE = 1;
+    private static final byte DIRECTORY = 2;
+
+    /** A file, with the hash of its blob, or a subdirectory, with the hash of its tree. */
+    static class Entry {
+        final boolean isTree;
+        final String hash;
+
+        Entry(boolean isTree, String hash) {
+            this.isTree = isTree;
+            this.hash = hash;
+        }
+    }
+
+    /** What changed from one tree to another, see {@link #diff}. */
+    static class Diff {
+        /** (path, blob hash) of the files only in the new tree */
+        final Map<String, String> added = new TreeMap<>();
+        /** (path, new blob hash) of the files whose blob changed */
+        final Map<String, String> modified = new TreeMap<>();
+        /** the files only in the old tree */
+        final List<String> removed = new ArrayList<>();
+    }
+
+    /** (name, entry), sorted by name */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    private Tree() {
+    }
+
+    /**
+     * Returns the hash of the tree ROOT of STORE with the files of ADDED (path, blob hash) added
+     * or replaced and the files of REMOVED removed. Only the trees of the directories on
+     * the way to a change are written, every other subtree is shared with ROOT, which
+     * may be null for an empty tree. Directories left empty disappear.
+     */
+    static String update(Store store, String root, Map<String, String> added, Set<String> removed) {
+        return update(store, root, added, removed, true);
+    }
+
+    /** Writes the trees of the files FILES (path, blob hash) to STORE and returns the hash of the root. */
+    static String fromFiles(Store store, Map<String, String> files) {
+        return update(store, null, files, Collections.emptySet(), true);
+    }
+
+    private static String update(Store store, String hash, Map<String, String> added, Set<String> removed,
+                                 boolean root) {
+        Tree tree = read(store, hash);
+        Map<String, Map<String, String>> addedBelow = new TreeMap<>();
+        Map<String, Set<String>> removedBelow = new TreeMap<>();
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            String path = file.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.entries.put(path, new Entry(false, file.getValue()));
+            } else {
+                addedBelow.computeIfAbsent(path.substring(0, slash), dir -> new TreeMap<>())
+                        .put(path.substring(slash + 1), file.getValue());
+            }
+        }
+        for (String path : removed) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                Entry entry = tree.entries.get(path);
+                if (entry != null && !entry.isTree) {
+                    tree.entries.remove(path);
+                }
+            } else {
+                removedBelow.computeIfAbsent(path.substring(0, slash), dir -> new TreeSet<>())
+                        .add(path.substring(slash + 1));
+            }
+        }
+        Set<String> dirs = new TreeSet<>(addedBelow.keySet());
+        dirs.addAll(removedBelow.keySet());
+        for (String dir : dirs) {
+            Entry entry = tree.entries.get(dir);
+            boolean isTree = entry != null && entry.isTree;
+            String child = update(store, isTree ? entry.hash : null,
+                    addedBelow.getOrDefault(dir, Collections.emptyMap()),
+                    removedBelow.getOrDefault(dir, Collections.emptySet()), false);
+            if (child != null) {
+                tree.entries.put(dir, new Entry(true, child));
+            } else if (isTree) {
+                tree.entries.remove(dir);
+            }
+        }
+        if (tree.entries.isEmpty() && !root) {
+            return null;
+        }
+        return tree.write(store);
+    }
+
+    /**
+     * Returns the hash of the blob of the file PATH under the tree ROOT of STORE, or
+     * null if there is no such file.
+     */
+    static String blobAt(Store store, String root, String path) {
+        String hash = root;
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length; i += 1) {
+            Entry entry = read(store, hash).entries.get(names[i]);
+            boolean last = i == names.length - 1;
+            if (entry == null || entry.isTree == last) {
+                return null;
+            }
+            hash = entry.hash;
+        }
+        return hash;
+    }
+
+    /** Returns every file under the tree ROOT of STORE, (path, blob hash), sorted by path. */
+    static Map<String, String> files(Store store, String root) {
+        Map<String, String> result = new TreeMap<>();
+        flatten(store, root, "", result);
+        return result;
+    }
+
+    private static void flatten(Store store, String hash, String prefix, Map<String, String> into) {
+        for (Map.Entry<String, Entry> item : read(store, hash).entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (entry.isTree) {
+                flatten(store, entry.hash, prefix + item.getKey() + "/", into);
+            } else {
+                into.put(prefix + item.getKey(), entry.hash);
+            }
+        }
+    }
+
+    /** Returns the entries of the tree HASH of STORE, (name, entry) sorted by name. */
+    static Map<String, Entry> list(Store store, String hash) {
+        return Collections.unmodifiableMap(read(store, hash).entries);
+    }
+
+    /**
+     * Returns what changed from the tree OLDROOT to the tree NEWROOT of STORE. A subdirectory
+     * with the same tree in both is skipped without being read.
+     */
+    static Diff diff(Store store, String oldRoot, String newRoot) {
+        Diff result = new Diff();
+        diff(store, read(store, oldRoot), read(store, newRoot), "", result);
+        return result;
+    }
+
+    private static void diff(Store store, Tree old, Tree now, String prefix, Diff result) {
+        Set<String> names = new TreeSet<>(old.entries.keySet());
+        names.addAll(now.entries.keySet());
+        for (String name : names) {
+            Entry before = old.entries.get(name);
+            Entry after = now.entries.get(name);
+            String path = prefix + name;
+            if (after == null) {
+                removeAll(store, before, path, result);
+            } else if (before == null) {
+                addAll(store, after, path, result);
+            } else if (before.isTree && after.isTree) {
+                if (!before.hash.equals(after.hash)) {
+                    diff(store, read(store, before.hash), read(store, after.hash), path + "/", result);
+                }
+            } else if (!before.isTree && !after.isTree) {
+                if (!before.hash.equals(after.hash)) {
+                    result.modified.put(path, after.hash);
+                }
+            } else {
+                // a file became a directory or the other way round
+                removeAll(store, before, path, result);
+                addAll(store, after, path, result);
+            }
+        }
+    }
+
+    private static void removeAll(Store store, Entry entry, String path, Diff result) {
+        if (entry.isTree) {
+            for (String file : files(store, entry.hash).keySet()) {
+                result.removed.add(path + "/" + file);
+            }
+        } else {
+            result.removed.add(path);
+        }
+    }
+
+    private static void addAll(Store store, Entry entry, String path, Diff result) {
+        if (entry.isTree) {
+            flatten(store, entry.hash, path + "/", result.added);
+        } else {
+            result.added.put(path, entry.hash);
+        }
+    }
+
+    /** Returns the tree HASH of STORE, or an empty tree if HASH is null. */
+    private static Tree read(Store store, String hash) {
+        Tree tree = new Tree();
+        if (hash == null) {
+            return tree;
+        }
+        byte[] contents;
+        File file = store.file(TREE_DIR, hash);
+        if (file.isFile()) {
+            contents = readContents(file);
+        } else {
+            Pack pack = Pack.open(store);
+            contents = pack == null ? null : pack.read(hash, Pack.TREE);
+            if (contents == null) {
+                throw new IllegalArgumentException("missing tree " + hash);
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("corrupt tree " + hash);
+            }
+            byte[] entryHash = new byte[HASH_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                in.readFully(entryHash);
+                tree.entries.put(name, new Entry(kind == DIRECTORY, toHex(entryHash)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt tree " + hash);
+        }
+        return tree;
+    }
+
+    /**
+     * Saves this tree to STORE, unless the same tree is already stored, and returns its hash.
+     * The entries are hashed as they are encoded, in the order of their TreeMap.
+     */
+    private String write(Store store) {
+        long start = Trace.start();
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + entries.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(bytes, md))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                out.writeByte(item.getValue().isTree ? DIRECTORY : FILE);
+                out.writeUTF(item.getKey());
+                out.write(toBytes(item.getValue().hash));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] contents = bytes.toByteArray();
+        String hash = toHex(md.digest());
+        Trace.SHA1.record(start, contents.length);
+        File file = store.file(TREE_DIR, hash);
+        Pack pack = Pack.open(store);
+        if (file.isFile() || (pack != null && pack.contains(hash))) {
+            return hash;
+        }
+        file.getParentFile().mkdir();
+        File tmp = store.file(TREE_DIR, hash + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hash;
+    }
+}
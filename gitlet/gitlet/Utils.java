@@ -1,21 +1,25 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -33,28 +37,57 @@ class Utils {
 
     /* SHA-1 HASH VALUES. */
 
+    /** Size of the buffer each thread streams contents to the digest through. */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** The SHA-1 digest of each thread, reused by every hash it computes. */
+    private static final ThreadLocal<MessageDigest> SHA1 =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+
+    /** The buffer of each thread for streaming contents to its digest. */
+    private static final ThreadLocal<byte[]> HASH_BUFFER =
+        ThreadLocal.withInitial(() -> new byte[HASH_BUFFER_SIZE]);
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 MessageDigest of this thread, reset.  It must be
+     *  done with (digest() called) before anything else on this thread
+     *  asks for it again, including any of the sha1 methods; a hash that
+     *  has to stay open across other hashing needs newSha1Digest(). */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1.get();
+        md.reset();
+        return md;
+    }
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        long start = Trace.start();
+        MessageDigest md = sha1Digest();
+        long length = 0;
+        for (Object val : vals) {
+            byte[] bytes;
+            if (val instanceof byte[]) {
+                bytes = (byte[]) val;
+            } else if (val instanceof String) {
+                bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            md.update(bytes);
+            length += bytes.length;
         }
+        String hash = toHex(md.digest());
+        Trace.SHA1.record(start, length);
+        return hash;
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -63,6 +96,97 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of the file at PATH,
+     *  streamed through a fixed buffer, so memory use doesn't depend on
+     *  the size of the file.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static String sha1(Path path) {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return sha1(channel);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1 hash of the rest of IN, which is read to its
+     *  end but not closed.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static String sha1(InputStream in) {
+        long start = Trace.start();
+        MessageDigest md = sha1Digest();
+        byte[] buffer = HASH_BUFFER.get();
+        long length = 0;
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                md.update(buffer, 0, n);
+                length += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String hash = toHex(md.digest());
+        Trace.SHA1.record(start, length);
+        return hash;
+    }
+
+    /** Returns the SHA-1 hash of CHANNEL from its current position to
+     *  its end, which is read but not closed.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(FileChannel channel) {
+        long start = Trace.start();
+        MessageDigest md = sha1Digest();
+        ByteBuffer buffer = ByteBuffer.wrap(HASH_BUFFER.get());
+        long length = 0;
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                length += buffer.remaining();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String hash = toHex(md.digest());
+        Trace.SHA1.record(start, length);
+        return hash;
+    }
+
+    /* HEXADECIMAL */
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** Returns the lowercase hexadecimal numeral of the bytes of
+     *  BYTES. */
+    static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /** Returns the lowercase hexadecimal numeral of the LENGTH bytes of
+     *  BYTES starting at OFFSET. */
+    static String toHex(byte[] bytes, int offset, int length) {
+        byte[] result = new byte[length * 2];
+        for (int i = 0; i < length; i += 1) {
+            int b = bytes[offset + i];
+            result[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        // Latin-1 bytes become the backing array of a compact String as they are
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns the 20 bytes of the SHA-1 UID HASH, given as a
+     *  hexadecimal numeral of UID_LENGTH digits. */
+    static byte[] toBytes(String hash) {
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hash.charAt(2 * i), 16) << 4
+                    | Character.digit(hash.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -140,11 +264,31 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Trace.start();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.READ_OBJECT.record(start, file.length());
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        long start = Trace.start();
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            Trace.DESERIALIZE.record(start, bytes.length);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -154,7 +298,10 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        long start = Trace.start();
+        byte[] bytes = serialize(obj);
+        writeContents(file, bytes);
+        Trace.WRITE_OBJECT.record(start, bytes.length);
     }
 
     /* DIRECTORIES */
@@ -172,11 +319,13 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long start = Trace.start();
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
         } else {
             Arrays.sort(files);
+            Trace.LIST_FILES.record(start, 0);
             return Arrays.asList(files);
         }
     }
@@ -0,0 +1,30 @@
+package gitlet;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The worker pool shared by the commands that spread work over several threads.
+ * Its parallelism is the number of available processors unless set with
+ * -Dgitlet.threads.
+ *
+ *  @author AGX
+ */
+class Workers {
+
+    /** Number of worker threads. */
+    static final int THREADS = Math.max(1,
+            Integer.getInteger("gitlet.threads", Runtime.getRuntime().availableProcessors()));
+
+    private static ForkJoinPool pool;
+
+    private Workers() {
+    }
+
+    /** Returns the shared pool, creating it on first use. */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(THREADS);
+        }
+        return pool;
+    }
+}